@@ -0,0 +1,46 @@
+package com.github.grignaak.collections;
+
+import java.util.Objects;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import com.github.grignaak.collections.impl.Beta;
+
+/**
+ * How a {@link CowAggregatingTreeMap} sums up its values: each value has a measure, and the measures combine into an
+ * aggregate&mdash;a total, a minimum, a maximum.
+ *
+ * <p>The combination must be associative, and the identity must combine with any aggregate to give back that
+ * aggregate. It need not be commutative; measures are always combined in the order of their keys. Aggregates are kept
+ * inside the map and shared between forks, so they are best immutable.</p>
+ */
+@Beta
+public interface Aggregation<V,A> {
+    /** The aggregate of no values at all. */
+    A identity();
+
+    A combine(A left, A right);
+
+    A measure(V value);
+
+    static <V,A> Aggregation<V,A> of(A identity, BinaryOperator<A> combine, Function<? super V, ? extends A> measure) {
+        Objects.requireNonNull(combine);
+        Objects.requireNonNull(measure);
+        return new Aggregation<V, A>() {
+            @Override
+            public A identity() {
+                return identity;
+            }
+
+            @Override
+            public A combine(A left, A right) {
+                return combine.apply(left, right);
+            }
+
+            @Override
+            public A measure(V value) {
+                return measure.apply(value);
+            }
+        };
+    }
+}
@@ -0,0 +1,238 @@
+package com.github.grignaak.collections;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.grignaak.collections.impl.Beta;
+
+/**
+ * A flat-combining front end for a copy-on-write map shared by many writer threads.
+ *
+ * <p>Rather than having every writer take a lock, copy its path through the map, and publish a fork, writers publish
+ * their pending operation to a combining array. Whichever writer gets the lock becomes the <em>combiner</em>: it
+ * applies every published operation to the map in a single generation&mdash;so the nodes copied by the first operation
+ * are edited in place by the rest&mdash;and then publishes a single fork for all of them.</p>
+ *
+ * <p>Readers call {@link #snapshot()} to get their own fork of the most recently published map. A writer's operation
+ * is always visible in the snapshots taken after its {@code put} or {@code remove} returns. An operation the map
+ * rejects&mdash;say, a key its comparator cannot compare&mdash;throws in the writer that asked for it, and leaves the
+ * other writers' operations alone.</p>
+ *
+ * <h3>Implementation notes</h3>
+ *
+ * This is the flat-combining technique of Hendler, Incze, Shavit and Tzafrir. The map itself is only ever touched by
+ * the combiner, so it needs no synchronization of its own.
+ */
+@Beta
+public final class CombiningWriter<K,V> {
+    private static final int DEFAULT_SLOTS = 64;
+
+    /** How many times the combiner scans the slots before giving up the lock. */
+    private static final int COMBINING_PASSES = 2;
+
+    private enum Op { PUT, REMOVE }
+
+    /**
+     * A pending operation. Each thread re-uses its own request, so writing produces no garbage of its own.
+     */
+    private static final class Request<K,V> {
+        Op op;
+        K key;
+        V value;
+        V result;
+        /** What the map threw instead of giving a result. */
+        Throwable failure;
+
+        /** Written by the combiner once the result is published; read by the requesting thread. */
+        volatile boolean done;
+    }
+
+    private final CowMap<K,V> map;
+    private final ReentrantLock combinerLock = new ReentrantLock();
+    private final AtomicReferenceArray<Request<K,V>> slots;
+    private final ThreadLocal<Request<K,V>> requests = ThreadLocal.withInitial(Request::new);
+
+    /** Scratch space for the combiner: the requests that are applied but not yet marked done. */
+    private final Object[] combined;
+
+    private volatile CowMap<K,V> published;
+
+    /**
+     * @param map the map to write to. The writer takes ownership of the map; it should not be used elsewhere.
+     */
+    public CombiningWriter(CowMap<K,V> map) {
+        this(map, DEFAULT_SLOTS);
+    }
+
+    /**
+     * @param map the map to write to. The writer takes ownership of the map; it should not be used elsewhere.
+     * @param slots the size of the combining array; around the number of writer threads is a good choice.
+     */
+    public CombiningWriter(CowMap<K,V> map, int slots) {
+        if (slots < 1) throw new IllegalArgumentException("expected at least one slot; got " + slots);
+
+        this.map = map;
+        this.slots = new AtomicReferenceArray<>(slots);
+        this.combined = new Object[slots];
+        this.published = map.fork();
+    }
+
+    /**
+     * Associate the value with the key in the shared map.
+     *
+     * @return the value previously associated with the key
+     * @see java.util.Map#put(Object, Object)
+     */
+    public V put(K key, V value) {
+        return submit(Op.PUT, key, value);
+    }
+
+    /**
+     * Remove the key from the shared map.
+     *
+     * @return the value previously associated with the key
+     * @see java.util.Map#remove(Object)
+     */
+    public V remove(K key) {
+        return submit(Op.REMOVE, key, null);
+    }
+
+    /**
+     * A fork of the most recently published map, owned by the caller.
+     */
+    public CowMap<K,V> snapshot() {
+        CowMap<K,V> latest = published;
+
+        // Forking bumps the generation of the published map too; keep readers from racing on it.
+        synchronized (latest) {
+            return latest.fork();
+        }
+    }
+
+    private V submit(Op op, K key, V value) {
+        Request<K,V> request = requests.get();
+        request.op = op;
+        request.key = key;
+        request.value = value;
+        request.done = false;
+
+        if (!publish(request)) {
+            // The combining array is full; wait our turn at the lock instead.
+            combinerLock.lock();
+            try {
+                apply(request);
+                combined[0] = request;
+                combine(1);
+            } finally {
+                combinerLock.unlock();
+            }
+            return takeResult(request);
+        }
+
+        while (!request.done) {
+            if (combinerLock.tryLock()) {
+                try {
+                    combine(0);
+                } finally {
+                    combinerLock.unlock();
+                }
+            } else {
+                Thread.yield();
+            }
+        }
+
+        return takeResult(request);
+    }
+
+    /**
+     * Put the request in the combining array, starting at a slot picked by the thread's id to spread out the
+     * writers.
+     */
+    private boolean publish(Request<K,V> request) {
+        int length = slots.length();
+        int start = (int) (Thread.currentThread().getId() % length);
+
+        for (int i = 0; i < length; i++) {
+            int slot = (start + i) % length;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, request)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Apply every published request in one generation, publish a single fork, and only then release the writers; so a
+     * writer always sees its own write in the next snapshot.
+     *
+     * <p>Precondition: the combiner lock is held.</p>
+     *
+     * @param count how many requests at the start of the scratch space are already applied
+     */
+    private void combine(int count) {
+        try {
+            for (int pass = 0; pass < COMBINING_PASSES; pass++) {
+                for (int slot = 0, length = slots.length(); slot < length && count < combined.length; slot++) {
+                    Request<K,V> request = slots.get(slot);
+                    if (request != null) {
+                        combined[count++] = request;
+                        slots.set(slot, null);
+                        apply(request);
+                    }
+                }
+            }
+        } finally {
+            // Nothing applied, nothing to publish.
+            if (count > 0) {
+                published = map.fork();
+            }
+
+            for (int i = 0; i < count; i++) {
+                @SuppressWarnings("unchecked")
+                Request<K,V> request = (Request<K,V>) combined[i];
+                combined[i] = null;
+                request.done = true;
+            }
+        }
+    }
+
+    /**
+     * Apply the request to the map; anything the map throws is kept for the requesting thread to rethrow, so that one
+     * bad request neither stops the combiner nor fails the other writers.
+     */
+    private void apply(Request<K,V> request) {
+        try {
+            switch (request.op) {
+                case PUT:
+                    request.result = map.put(request.key, request.value);
+                    break;
+                case REMOVE:
+                    request.result = map.remove(request.key);
+                    break;
+                default:
+                    throw new AssertionError("unknown operation " + request.op);
+            }
+        } catch (Throwable failure) {
+            request.failure = failure;
+        }
+    }
+
+    private static <K,V> V takeResult(Request<K,V> request) {
+        V result = request.result;
+        Throwable failure = request.failure;
+        request.key = null;
+        request.value = null;
+        request.result = null;
+        request.failure = null;
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            // the map's operations declare no checked exceptions, but one may be sneaked through
+            throw new IllegalStateException(failure);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,400 @@
+package com.github.grignaak.collections;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import javax.annotation.Nonnull;
+
+import com.github.grignaak.collections.impl.Beta;
+
+/**
+ * A {@link CowTreeMap} that also aggregates its values: a total, a minimum, a maximum; or anything else given by an
+ * {@link Aggregation}. The aggregate of any range of keys takes {@code O(log n)} time rather than a scan of the range.
+ *
+ * <h3>Implementation notes</h3>
+ *
+ * Every node of the tree keeps the aggregate of its subtree. A range is summed up from the nodes along the paths to
+ * its two ends, taking the subtrees between them whole. Each write recomputes the aggregates of the nodes it edited;
+ * which costs {@code O(log n)} combinations on top of the write itself. The range views are those of a plain
+ * {@code CowTreeMap}, without aggregates of their own; but writes through them keep this map's aggregates up to
+ * date.
+ */
+@Beta
+public final class CowAggregatingTreeMap<K,V,A> extends AbstractMap<K,V> implements CowNavigableMap<K,V> {
+    private final CowTreeMap<K,V> m;
+    private final Aggregation<? super V, A> aggregation;
+
+    /**
+     * @param comparator (try using {@link Comparator#naturalOrder()})
+     */
+    public CowAggregatingTreeMap(Comparator<K> comparator, Aggregation<? super V, A> aggregation) {
+        this(comparator, CowTreeMap.DEFAULT_FANOUT, aggregation);
+    }
+
+    /**
+     * @param comparator (try using {@link Comparator#naturalOrder()})
+     * @param fanout the most children of any node; an even number from 8 to 128
+     * @throws IllegalArgumentException if the fanout is odd or out of range
+     */
+    public CowAggregatingTreeMap(Comparator<K> comparator, int fanout, Aggregation<? super V, A> aggregation) {
+        this(new CowTreeMap<>(comparator, fanout, aggregation), aggregation);
+    }
+
+    private CowAggregatingTreeMap(CowTreeMap<K, V> m, Aggregation<? super V, A> aggregation) {
+        this.m = m;
+        this.aggregation = aggregation;
+    }
+
+    //region aggregates
+
+    /**
+     * The aggregate of every value in the map; in {@code O(1)} time.
+     */
+    @SuppressWarnings("unchecked")
+    public A aggregate() {
+        return (A) m.aggregate();
+    }
+
+    /**
+     * The aggregate of the values with keys in {@code [fromKey, toKey)}; in {@code O(log n)} time.
+     *
+     * @throws IllegalArgumentException if {@code fromKey} is greater than {@code toKey}
+     */
+    public A aggregate(K fromKey, K toKey) {
+        return aggregate(fromKey, true, toKey, false);
+    }
+
+    /**
+     * The aggregate of the values with keys from {@code fromKey} to {@code toKey}; in {@code O(log n)} time.
+     *
+     * @throws IllegalArgumentException if {@code fromKey} is greater than {@code toKey}
+     */
+    @SuppressWarnings("unchecked")
+    public A aggregate(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        if (m.comparator().compare(fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return (A) m.aggregate(false, fromKey, fromInclusive, false, toKey, toInclusive);
+    }
+
+    public Aggregation<? super V, A> aggregation() {
+        return aggregation;
+    }
+
+    //endregion
+
+    //region sorted batches
+
+    /**
+     * As in {@link CowTreeMap#putAllSorted(Iterator)}.
+     */
+    public void putAllSorted(Iterator<? extends Entry<? extends K, ? extends V>> entries) {
+        m.putAllSorted(entries);
+    }
+
+    /**
+     * As in {@link CowTreeMap#mergeSorted(Iterator, BiFunction)}.
+     */
+    public void mergeSorted(Iterator<? extends Entry<? extends K, ? extends V>> entries,
+                            BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        m.mergeSorted(entries, remappingFunction);
+    }
+
+    //endregion
+
+    //region split and join
+
+    /**
+     * As in {@link CowTreeMap#split(Object)}.
+     */
+    public CowAggregatingTreeMap<K,V,A> split(K key) {
+        return new CowAggregatingTreeMap<>(m.split(key), aggregation);
+    }
+
+    /**
+     * As in {@link CowTreeMap#join(CowTreeMap)}.
+     *
+     * @throws IllegalArgumentException if the keys of the maps overlap, or their fanouts or aggregations differ
+     */
+    public void join(CowAggregatingTreeMap<K,V,A> other) {
+        m.join(other.m);
+    }
+
+    /**
+     * As in {@link CowTreeMap#removeRange(Object, Object)}.
+     */
+    public void removeRange(K fromKey, K toKey) {
+        m.removeRange(fromKey, toKey);
+    }
+
+    /**
+     * As in {@link CowTreeMap#extractRange(Object, Object)}.
+     */
+    public CowAggregatingTreeMap<K,V,A> extractRange(K fromKey, K toKey) {
+        return new CowAggregatingTreeMap<>(m.extractRange(fromKey, toKey), aggregation);
+    }
+
+    //endregion
+
+    /**
+     * As in {@link CowTreeMap#cursor()}.
+     */
+    public CowTreeMap.Cursor<K,V> cursor() {
+        return m.cursor();
+    }
+
+    /**
+     * As in {@link CowTreeMap#diff(CowTreeMap, CowTreeMap.DiffVisitor)}.
+     */
+    public void diff(CowAggregatingTreeMap<K,V,A> older, CowTreeMap.DiffVisitor<? super K, ? super V> visitor) {
+        m.diff(older.m, visitor);
+    }
+
+    @Override
+    public CowAggregatingTreeMap<K,V,A> fork() {
+        return new CowAggregatingTreeMap<>(m.fork(), aggregation);
+    }
+
+    /**
+     * As in {@link CowTreeMap#fork(boolean)}.
+     */
+    public CowAggregatingTreeMap<K,V,A> fork(boolean compacting) {
+        return new CowAggregatingTreeMap<>(m.fork(compacting), aggregation);
+    }
+
+    /**
+     * As in {@link CowTreeMap#compact()}.
+     */
+    public void compact() {
+        m.compact();
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return m.comparator();
+    }
+
+    //region Map
+
+    @Override
+    public int size() {
+        return m.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return m.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return m.containsKey(key);
+    }
+
+    @Override
+    public V get(Object key) {
+        return m.get(key);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        return m.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return m.put(key, value);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return m.putIfAbsent(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        m.putAll(map);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return m.remove(key);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return m.remove(key, value);
+    }
+
+    @Override
+    public void clear() {
+        m.clear();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        m.forEach(action);
+    }
+
+    @Override @Nonnull
+    public Set<Entry<K, V>> entrySet() {
+        return m.entrySet();
+    }
+
+    @Override @Nonnull
+    public Set<K> keySet() {
+        return m.keySet();
+    }
+
+    @Override @Nonnull
+    public Collection<V> values() {
+        return m.values();
+    }
+
+    /**
+     * As in {@link CowTreeMap#equals(Object)}; so comparing against a fork skips the subtrees they share.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return m.equals(o instanceof CowAggregatingTreeMap ? ((CowAggregatingTreeMap<?,?,?>) o).m : o);
+    }
+
+    /**
+     * As in {@link CowTreeMap#hashCode()}.
+     */
+    @Override
+    public int hashCode() {
+        return m.hashCode();
+    }
+
+    //endregion
+
+    //region OrderedMap
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries() {
+        return m.descendingEntries();
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntriesBefore(K upperBoundExclusive) {
+        return m.descendingEntriesBefore(upperBoundExclusive);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> ascendingEntriesAfter(K lowerBoundExclusive) {
+        return m.ascendingEntriesAfter(lowerBoundExclusive);
+    }
+
+    //endregion
+
+    //region NavigableMap
+
+    @Override
+    public Entry<K, V> lowerEntry(K key) {
+        return m.lowerEntry(key);
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return m.lowerKey(key);
+    }
+
+    @Override
+    public Entry<K, V> floorEntry(K key) {
+        return m.floorEntry(key);
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return m.floorKey(key);
+    }
+
+    @Override
+    public Entry<K, V> ceilingEntry(K key) {
+        return m.ceilingEntry(key);
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return m.ceilingKey(key);
+    }
+
+    @Override
+    public Entry<K, V> higherEntry(K key) {
+        return m.higherEntry(key);
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return m.higherKey(key);
+    }
+
+    @Override
+    public Entry<K, V> firstEntry() {
+        return m.firstEntry();
+    }
+
+    @Override
+    public Entry<K, V> lastEntry() {
+        return m.lastEntry();
+    }
+
+    @Override
+    public Entry<K, V> pollFirstEntry() {
+        return m.pollFirstEntry();
+    }
+
+    @Override
+    public Entry<K, V> pollLastEntry() {
+        return m.pollLastEntry();
+    }
+
+    @Override
+    public K firstKey() {
+        return m.firstKey();
+    }
+
+    @Override
+    public K lastKey() {
+        return m.lastKey();
+    }
+
+    @Override
+    public CowNavigableMap<K, V> descendingMap() {
+        return m.descendingMap();
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        return m.navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return m.descendingKeySet();
+    }
+
+    @Override
+    public CowNavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return m.subMap(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public CowNavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        return m.headMap(toKey, inclusive);
+    }
+
+    @Override
+    public CowNavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        return m.tailMap(fromKey, inclusive);
+    }
+
+    //endregion
+}
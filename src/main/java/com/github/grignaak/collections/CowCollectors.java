@@ -2,6 +2,7 @@ package com.github.grignaak.collections;
 
 import java.util.Comparator;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
 import java.util.stream.Collector;
@@ -9,6 +10,8 @@ import java.util.stream.Collectors;
 
 import static java.util.stream.Collector.Characteristics;
 
+import com.github.grignaak.collections.impl.Beta;
+
 @SuppressWarnings("WeakerAccess")
 public final class CowCollectors {
     private CowCollectors() {/*utility*/}
@@ -31,6 +34,30 @@ public final class CowCollectors {
                 Characteristics.UNORDERED, Characteristics.IDENTITY_FINISH);
     }
 
+    /**
+     * Collect into a hash-based map. When a key is repeated, the value encountered last wins.
+     *
+     * <p>In a parallel stream the entries are grouped by their branch in the map as they are collected, and the
+     * branches are then built in parallel.</p>
+     */
+    @Beta
+    public static <T, K, V> Collector<T, ?, CowMap<K, V>> toCowMap(
+            Function<? super T, ? extends K> keyMapper,
+            Function<? super T, ? extends V> valueMapper) {
+        BiConsumer<CowHashMap.Partitions<K, V>, T> accumulator =
+                (partitions, element) -> partitions.add(keyMapper.apply(element), valueMapper.apply(element));
+
+        return Collector.of(
+                CowHashMap.Partitions::new,
+                accumulator,
+                CowHashMap.Partitions::addAll,
+                partitions -> {
+                    CowHashMap<K, V> map = new CowHashMap<>();
+                    map.putPartitions(partitions);
+                    return map;
+                });
+    }
+
     public static <T> Collector<T, ?, CowSet<T>> toOrderedCowSet(Comparator<? super T> comparator) {
         // noinspection unchecked
         return Collectors.toCollection(() -> new CowTreeSet<>((Comparator<T>) comparator));
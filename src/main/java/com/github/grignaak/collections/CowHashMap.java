@@ -5,15 +5,21 @@ import static java.lang.Integer.bitCount;
 import java.util.AbstractCollection;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.BiConsumer;
 
+import com.github.grignaak.collections.impl.Beta;
+
 /**
  * A hash-based copy-on-write map, where the get operation and the builder's put, update, and delete operations each
  * take sub-linear (near-constant) time.
@@ -81,6 +87,16 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
      *     [ k v k v k v | N N N N ]
      * </pre>
      *
+     * <p>A node being built up may keep spare room in the middle of the array,
+     * between the data and the children, so that it can take in more of either
+     * without copying. Only nodes of the current generation have any; a copy
+     * made for another generation is trimmed to fit.</p>
+     *
+     * <pre>
+     *      ------>                 <------
+     *     [ k v k v k v | . . . | N N N N ]
+     * </pre>
+     *
      * <p>Most nodes in the trie are {@link BitmapIndexNode}s; the leaves may be
      * {@link HashCollisionNode}s for handling keys with the same hash code</p>
      *
@@ -99,6 +115,11 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
 
     static final BitmapIndexNode<?,?> EMPTY_NODE = new BitmapIndexNode<>(-1, 0, 0, new Object[0], new int[0]);
 
+    /** Maps with up to this many entries keep them in a single {@link FlatNode} rather than a trie. */
+    static final int FLAT_MAX_ENTRIES = 8;
+
+    static final FlatNode<?,?> EMPTY_FLAT_NODE = new FlatNode<>(-1, new Object[0], new int[0]);
+
 
     //region Nodes
 
@@ -110,6 +131,18 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
         abstract Node<K,V> put(long generation, K key, V value, int keyHash, int shift, Change<V> change);
         abstract Node<K,V> remove(long generation, Object key, int keyHash, int shift, Change<V> change);
 
+        /**
+         * Apply the batch operations {@code [from, to)}, all of which belong under this node. The default applies them
+         * one at a time.
+         */
+        Node<K,V> applyBatch(BatchEditor<K,V> editor, int from, int to, int shift) {
+            Node<K,V> node = this;
+            for (int i = from; i < to; i++) {
+                node = editor.apply(node, i, shift);
+            }
+            return node;
+        }
+
         abstract K keyAt(int index);
         abstract V valueAt(int index);
 
@@ -141,11 +174,19 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
      */
     static final class BitmapIndexNode<K,V> extends Node<K,V> {
 
+        /** The most slots a node can fill: an entry in every branch. */
+        private static final int MAX_SLOTS = TUPLE_LENGTH * (BIT_PARTITION_MASK + 1);
+
         protected long generation;
         protected int nodeMap;
         protected int dataMap;
 
+        /** The data from the front, the children from the back; and perhaps spare room in between. */
         private Object[] nodes;
+        /**
+         * The hashes of the data, and perhaps spare room after them. Copies of a node may share the array; but only
+         * while it has no spare room, which is why one with no room is never edited in place.
+         */
         private int[] hashes;
 
         BitmapIndexNode(long generation, int nodeMap, int dataMap, Object[] nodes, int[] hashes) {
@@ -183,12 +224,17 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
             assert (size - payloadArity >= 2 * (arity - payloadArity));
 
             int payloadSize = TUPLE_LENGTH * payloadArity;
-            assert payloadSize + nodeArity == nodes.length;
+            int nodesStart = nodes.length - nodeArity;
+            assert payloadSize <= nodesStart;
+            assert payloadArity <= hashes.length;
 
             for (int i = 0; i < payloadSize; i++) {
                 assert !(nodes[i] instanceof Node<?,?>) : Arrays.toString(nodes);
             }
-            for (int i = payloadSize; i < nodes.length; i++) {
+            for (int i = payloadSize; i < nodesStart; i++) {
+                assert nodes[i] == null : Arrays.toString(nodes);
+            }
+            for (int i = nodesStart; i < nodes.length; i++) {
                 assert nodes[i] instanceof Node<?,?> : Arrays.toString(nodes);
             }
         }
@@ -217,11 +263,20 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
             if (!(obj instanceof BitmapIndexNode<?,?>)) return false;
 
             BitmapIndexNode<?,?> that = (BitmapIndexNode<?, ?>) obj;
+            if (this.nodeMap != that.nodeMap || this.dataMap != that.dataMap) return false;
 
-            return this.nodeMap == that.nodeMap &&
-                this.dataMap == that.dataMap &&
-                Arrays.equals(this.hashes, that.hashes) &&
-                Arrays.equals(this.nodes, that.nodes);
+            // either may have spare room, so compare what is in use
+            for (int i = 0, sz = payloadArity(); i < sz; i++) {
+                if (this.hashes[i] != that.hashes[i] ||
+                    !Objects.equals(this.keyAt(i), that.keyAt(i)) ||
+                    !Objects.equals(this.valueAt(i), that.valueAt(i)))
+                    return false;
+            }
+            for (int i = 0, sz = nodeArity(); i < sz; i++) {
+                if (!this.nodeAt(i).equals(that.nodeAt(i)))
+                    return false;
+            }
+            return true;
         }
 
         @Override
@@ -284,37 +339,148 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
             }
         }
 
-        private BitmapIndexNode<K, V> copyAndSetNode(long generation, int bitpos, Node<K, V> child) {
-            final int index = nodes.length - 1 - nodeIndex(bitpos);
+        /**
+         * Operations are grouped by their branch at this level. A group that continues into a child node is handed to
+         * the child in one go, so every node along the way is copied&mdash;or edited&mdash;just once.
+         */
+        @Override
+        BitmapIndexNode<K,V> applyBatch(BatchEditor<K,V> editor, int from, int to, int shift) {
+            final long generation = editor.generation;
+            BitmapIndexNode<K,V> me = this;
+
+            int start = from;
+            while (start < to) {
+                final int bitpos = bitpos(editor.hashAt(start), shift);
+                int end = start + 1;
+                while (end < to && bitpos(editor.hashAt(end), shift) == bitpos) {
+                    end++;
+                }
+
+                if ((me.nodeMap & bitpos) != 0 && end - start > 1) {
+                    Node<K,V> oldChild = me.nodeAtBitpos(bitpos);
+                    Node<K,V> newChild = oldChild.applyBatch(editor, start, end, shift + BIT_PARTITION_SIZE);
+
+                    int newChildSize = newChild.looseSize();
+                    if (newChildSize == 0) {
+                        me = me.copyAndRemoveNode(generation, bitpos);
+                    } else if (newChildSize == 1) {
+                        me = me.copyAndMigrateFromNodeToInline(generation, bitpos, newChild);
+                    } else if (newChild != oldChild) {
+                        me = me.copyAndSetNode(generation, bitpos, newChild);
+                    }
+                } else {
+                    for (int i = start; i < end; i++) {
+                        me = editor.apply(me, i, shift);
+                    }
+                }
+
+                start = end;
+            }
+
+            return me;
+        }
+
+        /**
+         * A new node holding only this node's branch at {@code bitpos}; or an empty node if the branch is empty.
+         * The branch's content is shared, not copied.
+         */
+        BitmapIndexNode<K,V> slice(long generation, int bitpos) {
+            if ((dataMap & bitpos) != 0) {
+                int index = dataIndex(bitpos);
+                return new BitmapIndexNode<>(generation, 0, bitpos,
+                    new Object[] { keyAt(index), valueAt(index) },
+                    new int[] { hashes[index] });
+            } else if ((nodeMap & bitpos) != 0) {
+                return new BitmapIndexNode<>(generation, bitpos, 0, new Object[] { nodeAtBitpos(bitpos) }, new int[0]);
+            } else {
+                return new BitmapIndexNode<>(generation, 0, 0, new Object[0], new int[0]);
+            }
+        }
+
+        /**
+         * The inverse of {@link #slice(long, int)}: join together the single-branch nodes, one per branch, into a
+         * single node. A {@code null} slice is taken from {@code base} instead.
+         */
+        static <K,V> BitmapIndexNode<K,V> stitch(long generation, BitmapIndexNode<K,V> base, BitmapIndexNode<K,V>[] slices) {
+            int nodeMap = 0;
+            int dataMap = 0;
+            for (int mask = 0; mask <= BIT_PARTITION_MASK; mask++) {
+                int bitpos = bitpos(mask);
+                BitmapIndexNode<K,V> slice = slices[mask] != null ? slices[mask] : base;
+                nodeMap |= slice.nodeMap & bitpos;
+                dataMap |= slice.dataMap & bitpos;
+            }
+
+            int payloadArity = bitCount(dataMap);
+            Object[] nodes = new Object[TUPLE_LENGTH * payloadArity + bitCount(nodeMap)];
+            int[] hashes = new int[payloadArity];
+
+            int dataIndex = 0;
+            int nodeIndex = nodes.length - 1;
+            for (int mask = 0; mask <= BIT_PARTITION_MASK; mask++) {
+                int bitpos = bitpos(mask);
+                BitmapIndexNode<K,V> slice = slices[mask] != null ? slices[mask] : base;
+
+                if ((dataMap & bitpos) != 0) {
+                    int index = slice.dataIndex(bitpos);
+                    nodes[TUPLE_LENGTH * dataIndex] = slice.keyAt(index);
+                    nodes[TUPLE_LENGTH * dataIndex + 1] = slice.valueAt(index);
+                    hashes[dataIndex] = slice.hashes[index];
+                    dataIndex++;
+                } else if ((nodeMap & bitpos) != 0) {
+                    nodes[nodeIndex--] = slice.nodeAtBitpos(bitpos);
+                }
+            }
+
+            return new BitmapIndexNode<>(generation, nodeMap, dataMap, nodes, hashes);
+        }
+
+        private BitmapIndexNode<K, V> copyAndRemoveNode(long generation, int bitpos) {
+            final int nodeIndex = nodeIndex(bitpos);
+            int newNodeMap = nodeMap ^ bitpos;
 
             if (generation == this.generation) {
-                nodes[index] = child;
+                removeNodeAt(nodeIndex);
+                this.nodeMap = newNodeMap;
 
                 return this;
             } else {
-                Object[] newNodes = MoreArrays.arrayCopyAndReplace(nodes, index, child);
-                return new BitmapIndexNode<>(generation, nodeMap, dataMap, newNodes, hashes);
+                Object[] nodes = trimmedNodes();
+                Object[] newNodes = MoreArrays.arrayCopyAndRemove(nodes, nodes.length - 1 - nodeIndex);
+                return new BitmapIndexNode<>(generation, newNodeMap, dataMap, newNodes, trimmedHashes());
             }
         }
 
-        private BitmapIndexNode<K, V> copyAndMigrateFromInlineToNode(long generation, int bitpos, Node<K, V> childNode) {
-            final int index = dataIndex(bitpos);
+        private BitmapIndexNode<K, V> copyAndSetNode(long generation, int bitpos, Node<K, V> child) {
+            if (generation == this.generation) {
+                nodes[nodes.length - 1 - nodeIndex(bitpos)] = child;
 
-            int newChildIndex = nodes.length - nodeIndex(bitpos);
+                return this;
+            } else {
+                Object[] newNodes = copyOfLength(usedSlots());
+                newNodes[newNodes.length - 1 - nodeIndex(bitpos)] = child;
+                return new BitmapIndexNode<>(generation, nodeMap, dataMap, newNodes, trimmedHashes());
+            }
+        }
 
-            Object[] newNodes = MoreArrays.arrayCopyAndRemovePairAndInsert(nodes, TUPLE_LENGTH * index, newChildIndex, childNode);
-            int[] newHashes = MoreArrays.arrayCopyAndRemove(hashes, index);
+        private BitmapIndexNode<K, V> copyAndMigrateFromInlineToNode(long generation, int bitpos, Node<K, V> childNode) {
+            final int index = dataIndex(bitpos);
+            final int nodeIndex = nodeIndex(bitpos);
             int newNodeMap = this.nodeMap | bitpos;
             int newDataMap = this.dataMap ^ bitpos;
 
             if (generation == this.generation) {
-                this.nodeMap = newNodeMap;
+                // removing the data first leaves room for the child
+                removeDataAt(index);
                 this.dataMap = newDataMap;
-                this.nodes = newNodes;
-                this.hashes = newHashes;
+                insertNodeAt(nodeIndex, childNode);
+                this.nodeMap = newNodeMap;
 
                 return this;
             } else {
+                Object[] nodes = trimmedNodes();
+                Object[] newNodes = MoreArrays.arrayCopyAndRemovePairAndInsert(nodes, TUPLE_LENGTH * index, nodes.length - nodeIndex, childNode);
+                int[] newHashes = MoreArrays.arrayCopyAndRemove(trimmedHashes(), index);
                 return new BitmapIndexNode<>(generation, newNodeMap, newDataMap, newNodes, newHashes);
             }
         }
@@ -389,44 +555,28 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
         }
 
         private BitmapIndexNode<K, V> copyAndMigrateFromNodeToInline(long generation, int bitpos, Node<K, V> child) {
-            final K key = child.keyAt(0);
-            final V value = child.valueAt(0);
-            final int hash = child.hashAt(0);
-
-            final int dataIndex = dataIndex(bitpos);
-            final int nodeIndex = nodes.length - 1 - nodeIndex(bitpos);
-
-            Object[] newNodes = MoreArrays.arrayCopyAndInsertPairAndRemove(nodes, TUPLE_LENGTH * dataIndex, key, value, nodeIndex);
-            int[] newHashes = MoreArrays.arrayCopyAndInsert(hashes, dataIndex, hash);
-            int newDataMap = dataMap | bitpos;
-            int newNodeMap = nodeMap ^ bitpos;
-
-            if (generation == this.generation) {
-                this.nodes = newNodes;
-                this.hashes = newHashes;
-                this.dataMap = newDataMap;
-                this.nodeMap = newNodeMap;
-
-                return this;
-            } else {
-                return new BitmapIndexNode<>(generation, newNodeMap, newDataMap, newNodes, newHashes);
-            }
+            // removing the child first leaves room for all but one slot of the data
+            BitmapIndexNode<K,V> node = editable(generation, TUPLE_LENGTH - 1, 1);
+            node.removeNodeAt(nodeIndex(bitpos));
+            node.nodeMap ^= bitpos;
+            node.insertDataAt(dataIndex(bitpos), child.keyAt(0), child.valueAt(0), child.hashAt(0));
+            node.dataMap |= bitpos;
+
+            return node;
         }
 
         private BitmapIndexNode<K, V> copyAndRemoveKeyValuePair(long generation, int bitpos) {
             final int index = dataIndex(bitpos);
-
-            Object[] newNodes = MoreArrays.arrayCopyAndRemovePair(nodes, TUPLE_LENGTH * index);
-            int[] newHashes = MoreArrays.arrayCopyAndRemove(hashes, index);
             int newDataMap = dataMap ^ bitpos;
 
             if (generation == this.generation) {
+                removeDataAt(index);
                 this.dataMap = newDataMap;
-                this.nodes = newNodes;
-                this.hashes = newHashes;
 
                 return this;
             } else {
+                Object[] newNodes = MoreArrays.arrayCopyAndRemovePair(trimmedNodes(), TUPLE_LENGTH * index);
+                int[] newHashes = MoreArrays.arrayCopyAndRemove(trimmedHashes(), index);
                 return new BitmapIndexNode<>(generation, nodeMap, newDataMap, newNodes, newHashes);
             }
         }
@@ -438,28 +588,124 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
 
                 return this;
             } else {
-                Object[] newNodes = MoreArrays.arrayCopyAndReplace(nodes, valueIndex, value);
-                return new BitmapIndexNode<>(generation, nodeMap, dataMap, newNodes, hashes);
+                Object[] newNodes = copyOfLength(usedSlots());
+                newNodes[valueIndex] = value;
+                return new BitmapIndexNode<>(generation, nodeMap, dataMap, newNodes, trimmedHashes());
             }
         }
 
         private BitmapIndexNode<K,V> copyAndInsertValue(long generation, int bitpos, K key, V value, int hash) {
-            final int index = dataIndex(bitpos);
+            BitmapIndexNode<K,V> node = editable(generation, TUPLE_LENGTH, 1);
+            node.insertDataAt(dataIndex(bitpos), key, value, hash);
+            node.dataMap |= bitpos;
 
-            final Object[] newNodes = MoreArrays.arrayCopyAndInsert(nodes, TUPLE_LENGTH * index, key, value);
-            final int[] newhashes = MoreArrays.arrayCopyAndInsert(hashes, index, hash);
+            return node;
+        }
 
-            if (generation == this.generation) {
-                this.nodes = newNodes;
-                this.dataMap |= bitpos;
-                this.hashes = newhashes;
+        //region spare room
 
-                return this;
-            } else {
-                return new BitmapIndexNode<>(generation, nodeMap, (dataMap | bitpos), newNodes, newhashes);
+        /**
+         * This node, when the generation owns it; or else a copy that it does. Either way with room for that many more
+         * slots and hashes. An owned node that runs short grows by half again, as an {@link ArrayList} does, so that a
+         * run of inserts seldom copies; a copy has just the room asked for.
+         */
+        private BitmapIndexNode<K,V> editable(long generation, int moreSlots, int moreHashes) {
+            int usedSlots = usedSlots();
+            int usedHashes = payloadArity();
+
+            if (generation != this.generation) {
+                return new BitmapIndexNode<>(generation, nodeMap, dataMap,
+                    copyOfLength(usedSlots + moreSlots), Arrays.copyOf(hashes, usedHashes + moreHashes));
+            }
+
+            if (nodes.length < usedSlots + moreSlots) {
+                nodes = copyOfLength(grow(nodes.length, usedSlots + moreSlots, MAX_SLOTS));
+            }
+            if (hashes.length < usedHashes + moreHashes) {
+                hashes = Arrays.copyOf(hashes, grow(hashes.length, usedHashes + moreHashes, BIT_PARTITION_MASK + 1));
+            }
+            return this;
+        }
+
+        private static int grow(int length, int needed, int most) {
+            return Math.max(needed, Math.min(length + (length >> 1), most));
+        }
+
+        private int usedSlots() {
+            return TUPLE_LENGTH * payloadArity() + nodeArity();
+        }
+
+        /** A copy of the array at the given length: the data at the front and the children at the back. */
+        private Object[] copyOfLength(int length) {
+            int dataSlots = TUPLE_LENGTH * payloadArity();
+            int nodeArity = nodeArity();
+
+            Object[] copy = new Object[length];
+            System.arraycopy(nodes, 0, copy, 0, dataSlots);
+            System.arraycopy(nodes, nodes.length - nodeArity, copy, length - nodeArity, nodeArity);
+            return copy;
+        }
+
+        /** The array without any spare room; a copy only if it had some. */
+        private Object[] trimmedNodes() {
+            int usedSlots = usedSlots();
+            return nodes.length == usedSlots ? nodes : copyOfLength(usedSlots);
+        }
+
+        /** The hashes without any spare room; a copy only if they had some. */
+        private int[] trimmedHashes() {
+            int payloadArity = payloadArity();
+            return hashes.length == payloadArity ? hashes : Arrays.copyOf(hashes, payloadArity);
+        }
+
+        /** Shift the data over to insert an entry; the node must be owned, and have the room. */
+        private void insertDataAt(int index, K key, V value, int hash) {
+            int payloadArity = payloadArity();
+            int slot = TUPLE_LENGTH * index;
+            System.arraycopy(nodes, slot, nodes, slot + TUPLE_LENGTH, TUPLE_LENGTH * payloadArity - slot);
+            nodes[slot] = key;
+            nodes[slot + 1] = value;
+
+            System.arraycopy(hashes, index, hashes, index + 1, payloadArity - index);
+            hashes[index] = hash;
+        }
+
+        /** Shift the data over to remove an entry; the node must be owned. */
+        private void removeDataAt(int index) {
+            int last = payloadArity() - 1;
+            int slot = TUPLE_LENGTH * index;
+            int lastSlot = TUPLE_LENGTH * last;
+            System.arraycopy(nodes, slot + TUPLE_LENGTH, nodes, slot, lastSlot - slot);
+            nodes[lastSlot] = null;
+            nodes[lastSlot + 1] = null;
+
+            int[] shared = hashes;
+            if (hashes.length == last + 1) {
+                // perhaps shared with a copy; see hashes
+                hashes = new int[last + 1];
+                System.arraycopy(shared, 0, hashes, 0, index);
             }
+            System.arraycopy(shared, index + 1, hashes, index, last - index);
+        }
+
+        /** Shift the children over, toward the front, to insert one; the node must be owned, and have the room. */
+        private void insertNodeAt(int nodeIndex, Node<K,V> child) {
+            int first = nodes.length - nodeArity();
+            int slot = nodes.length - 1 - nodeIndex;
+            System.arraycopy(nodes, first, nodes, first - 1, slot - first + 1);
+            nodes[slot] = child;
+        }
+
+        /** Shift the children over, toward the back, to remove one; the node must be owned. */
+        private void removeNodeAt(int nodeIndex) {
+            int first = nodes.length - nodeArity();
+            int slot = nodes.length - 1 - nodeIndex;
+            System.arraycopy(nodes, first, nodes, first + 1, slot - first);
+            nodes[first] = null;
         }
 
+        //endregion
+
         @Override
         @SuppressWarnings("unchecked")
         K keyAt(int index) {
@@ -562,10 +808,19 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
             if (keyHash != this.keyHash) {
                 // This is a squashed node and the key doesn't belong!
                 // Add this as a child of a new node.
+                final int nodeBitpos = bitpos(this.keyHash, shift);
+                final int dataBitpos = bitpos(keyHash, shift);
+
+                if (nodeBitpos == dataBitpos) {
+                    // ...but they still share a branch at this level; push both down a level.
+                    Node<K,V> child = put(generation, key, value, keyHash, shift + BIT_PARTITION_SIZE, change);
+                    return new BitmapIndexNode<>(generation, nodeBitpos, 0, new Object[] { child }, new int[0]);
+                }
+
                 change.modified();
 
                 return new BitmapIndexNode<>(generation,
-                    bitpos(this.keyHash, shift), bitpos(keyHash, shift),
+                    nodeBitpos, dataBitpos,
                     new Object[] { key, value, this },
                     new int[] { keyHash });
             } else {
@@ -668,6 +923,188 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
         }
     }
 
+    /**
+     * The root of a small map: the entries are kept in a flat array, in insertion order, and found by a linear scan of
+     * their cached hashes. For a handful of entries this is both smaller than a trie and faster to search. Once it
+     * outgrows {@link #FLAT_MAX_ENTRIES} it is promoted to a trie.
+     *
+     * <p>This node is only ever used as the root; it never appears inside a trie. A trie that shrinks is not demoted
+     * back to a flat node.</p>
+     */
+    static final class FlatNode<K,V> extends Node<K,V> {
+        private final long generation;
+        private Object[] nodes;
+        private int[] hashes;
+
+        FlatNode(long generation, Object[] nodes, int[] hashes) {
+            this.generation = generation;
+            this.nodes = nodes;
+            this.hashes = hashes;
+        }
+
+        @Override
+        public String toString() {
+            return "FLAT{" + Arrays.toString(nodes) + "}";
+        }
+
+        /**
+         * The entries aren't stored in any particular order, so the check is against the content only.
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (!(obj instanceof FlatNode<?,?>)) return false;
+
+            @SuppressWarnings("unchecked")
+            FlatNode<Object,?> that = (FlatNode<Object, ?>) obj;
+            if (this.payloadArity() != that.payloadArity()) return false;
+
+            for (int i = 0, sz = payloadArity(); i < sz; i++) {
+                int index = that.indexOf(keyAt(i), hashes[i]);
+                if (index < 0 || !Objects.equals(valueAt(i), that.valueAt(index)))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * As with {@link #equals(Object)}, in no particular order; so the entries are summed.
+         */
+        @Override
+        public int hashCode() {
+            int hash = 0;
+            for (int i = 0, sz = payloadArity(); i < sz; i++) {
+                hash += hashes[i] ^ Objects.hashCode(valueAt(i));
+            }
+            return hash;
+        }
+
+        private int indexOf(Object key, int keyHash) {
+            for (int i = 0; i < hashes.length; i++) {
+                if (hashes[i] == keyHash && Objects.equals(key, nodes[TUPLE_LENGTH * i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Search<V> findByKey(K key, int hash, int shift) {
+            int index = indexOf(key, hash);
+            return index >= 0 ? Search.found(valueAt(index)) : Search.notFound();
+        }
+
+        @Override
+        Node<K,V> put(long generation, K key, V value, int keyHash, int shift, Change<V> change) {
+            int index = indexOf(key, keyHash);
+            if (index >= 0) {
+                change.updated(valueAt(index));
+                return copyAndSetValue(generation, index, value);
+            } else if (hashes.length < FLAT_MAX_ENTRIES) {
+                change.modified();
+                return copyAndAppendValue(generation, key, value, keyHash);
+            } else {
+                return toTrie(generation).put(generation, key, value, keyHash, shift, change);
+            }
+        }
+
+        @Override
+        Node<K,V> remove(long generation, Object key, int keyHash, int shift, Change<V> change) {
+            int index = indexOf(key, keyHash);
+            if (index < 0) {
+                return this;
+            }
+
+            change.updated(valueAt(index));
+            return copyAndRemoveValue(generation, index);
+        }
+
+        /**
+         * A batch that may not fit goes straight to a trie, rather than overflowing part way through.
+         */
+        @Override
+        Node<K,V> applyBatch(BatchEditor<K,V> editor, int from, int to, int shift) {
+            if (payloadArity() + (to - from) > FLAT_MAX_ENTRIES) {
+                return toTrie(editor.generation).applyBatch(editor, from, to, shift);
+            } else {
+                return super.applyBatch(editor, from, to, shift);
+            }
+        }
+
+        /**
+         * The same entries as a trie, owned by the given generation.
+         */
+        BitmapIndexNode<K,V> toTrie(long generation) {
+            Change<V> ignored = new Change<>();
+
+            @SuppressWarnings("unchecked")
+            BitmapIndexNode<K,V> trie = (BitmapIndexNode<K, V>) EMPTY_NODE;
+            for (int i = 0; i < hashes.length; i++) {
+                trie = trie.put(generation, keyAt(i), valueAt(i), hashes[i], 0, ignored);
+            }
+            return trie;
+        }
+
+        private Node<K,V> copyAndSetValue(long generation, int index, V value) {
+            final int valueIndex = TUPLE_LENGTH * index + 1;
+
+            if (generation == this.generation) {
+                nodes[valueIndex] = value;
+                return this;
+            } else {
+                return new FlatNode<>(generation, MoreArrays.arrayCopyAndReplace(nodes, valueIndex, value), hashes);
+            }
+        }
+
+        private Node<K,V> copyAndAppendValue(long generation, K key, V value, int keyHash) {
+            Object[] newNodes = MoreArrays.arrayCopyAndAppend(nodes, key, value);
+            int[] newHashes = MoreArrays.arrayCopyAndInsert(hashes, hashes.length, keyHash);
+
+            if (generation == this.generation) {
+                nodes = newNodes;
+                hashes = newHashes;
+                return this;
+            } else {
+                return new FlatNode<>(generation, newNodes, newHashes);
+            }
+        }
+
+        private Node<K,V> copyAndRemoveValue(long generation, int index) {
+            Object[] newNodes = MoreArrays.arrayCopyAndRemovePair(nodes, TUPLE_LENGTH * index);
+            int[] newHashes = MoreArrays.arrayCopyAndRemove(hashes, index);
+
+            if (generation == this.generation) {
+                nodes = newNodes;
+                hashes = newHashes;
+                return this;
+            } else {
+                return new FlatNode<>(generation, newNodes, newHashes);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        K keyAt(int index) {
+            return (K) nodes[TUPLE_LENGTH * index];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        V valueAt(int index) {
+            return (V) nodes[TUPLE_LENGTH * index + 1];
+        }
+
+        @Override
+        int hashAt(int index) {
+            return hashes[index];
+        }
+
+        @Override
+        int payloadArity() {
+            return hashes.length;
+        }
+    }
+
     //endregion
 
     //region Iterators
@@ -699,7 +1136,7 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
         private final int[] nodeCursorsAndLengths = new int[MAX_DEPTH * 2];
         private int curStackLevel = -1;
 
-        Iter(BitmapIndexNode<K,V> rootNode) {
+        Iter(Node<K,V> rootNode) {
             if (rootNode.hasNodes()) {
                 curStackLevel = 0;
 
@@ -809,7 +1246,7 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
     static class SelfIter<K,V> extends Iter<K,V, Void> {
         V lastValue = null;
 
-        SelfIter(BitmapIndexNode<K, V> rootNode) {
+        SelfIter(Node<K, V> rootNode) {
             super(rootNode);
         }
 
@@ -822,15 +1259,15 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
 
     //endregion
 
-    protected BitmapIndexNode<K,V> root;
+    protected Node<K,V> root;
     protected int size;
 
     public CowHashMap() {
         //noinspection unchecked
-        this(EMPTY_NODE.generation + 1, (BitmapIndexNode<K, V>) EMPTY_NODE, 0);
+        this(EMPTY_NODE.generation + 1, (Node<K, V>) EMPTY_FLAT_NODE, 0);
     }
 
-    private CowHashMap(long generation, BitmapIndexNode<K,V> root, int size) {
+    private CowHashMap(long generation, Node<K,V> root, int size) {
         this.generation = generation;
         this.root = root;
         this.size = size;
@@ -879,7 +1316,10 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
 
         if (other instanceof CowHashMap<?,?>) {
             CowHashMap<?, ?> that = (CowHashMap<?, ?>) map;
-            return this.root.equals(that.root);
+
+            // Equal structure means equal maps, but not the other way around: where a hash-collision node sits in the
+            // trie depends on the order its keys arrived, and a map that shrank keeps its trie rather than going flat.
+            return this.root.equals(that.root) || equalsMap(map);
         } else {
             return equalsMap(map);
         }
@@ -961,6 +1401,435 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
 
     //endregion
 
+    //region Batched lookup
+
+    /**
+     * Look up many keys at once. The value for {@code keys[i]} is put in {@code out[i]}; or {@code null} when the
+     * key is absent.
+     *
+     * <p>This is faster than calling {@link #get(Object)} for each key on large maps because the lookups descend the
+     * trie together, one level at a time, so their memory accesses overlap instead of waiting on each other.</p>
+     *
+     * @return the number of keys found
+     */
+    public int getAll(K[] keys, V[] out) {
+        if (out.length < keys.length) {
+            throw new IllegalArgumentException(String.format(
+                "expected room for %d values; got %d", keys.length, out.length));
+        }
+        return lookupAll(keys, out);
+    }
+
+    /**
+     * Check many keys at once; as in {@link #getAll(Object[], Object[])}.
+     *
+     * @return whether every key is in the map
+     */
+    public boolean containsAll(K[] keys) {
+        return lookupAll(keys, null) == keys.length;
+    }
+
+    /**
+     * The lookups are ordered by their bit-reversed hash, which puts lookups that share a path through the trie
+     * next to each other. A lookup that follows the same branch as its neighbor re-uses the resolved child.
+     */
+    private int lookupAll(K[] keys, V[] out) {
+        final int count = keys.length;
+
+        final long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            int keyHash = Objects.hashCode(keys[i]);
+            order[i] = ((long) Integer.reverse(keyHash) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        final int[] pending = new int[count];
+        final int[] hashes = new int[count];
+        @SuppressWarnings("unchecked")
+        final Node<K,V>[] cursors = (Node<K,V>[]) new Node<?,?>[count];
+        for (int i = 0; i < count; i++) {
+            int index = (int) order[i];
+            pending[i] = index;
+            hashes[index] = Integer.reverse((int) (order[i] >>> 32));
+            cursors[index] = root;
+        }
+
+        int found = 0;
+        int pendingCount = count;
+        for (int shift = 0; pendingCount > 0; shift += BIT_PARTITION_SIZE) {
+            int stillPending = 0;
+
+            Node<K,V> lastParent = null;
+            int lastBitpos = 0;
+            Node<K,V> lastChild = null;
+
+            for (int p = 0; p < pendingCount; p++) {
+                final int index = pending[p];
+                final K key = keys[index];
+                final int keyHash = hashes[index];
+                final Node<K,V> node = cursors[index];
+
+                if (!(node instanceof BitmapIndexNode<?,?>)) {
+                    Search<V> search = node.findByKey(key, keyHash, shift);
+                    found += resolve(out, index, search.isFound(), search.value());
+                    continue;
+                }
+
+                final BitmapIndexNode<K,V> bin = (BitmapIndexNode<K, V>) node;
+                final int bitpos = bitpos(keyHash, shift);
+
+                if ((bin.dataMap & bitpos) != 0) {
+                    final int dataIndex = bin.dataIndex(bitpos);
+                    boolean isMatch = bin.hashes[dataIndex] == keyHash && Objects.equals(bin.keyAt(dataIndex), key);
+                    found += resolve(out, index, isMatch, isMatch ? bin.valueAt(dataIndex) : null);
+                } else if ((bin.nodeMap & bitpos) != 0) {
+                    if (bin != lastParent || bitpos != lastBitpos) {
+                        lastParent = bin;
+                        lastBitpos = bitpos;
+                        lastChild = bin.nodeAtBitpos(bitpos);
+                    }
+                    cursors[index] = lastChild;
+                    pending[stillPending++] = index;
+                } else {
+                    found += resolve(out, index, false, null);
+                }
+            }
+
+            pendingCount = stillPending;
+        }
+
+        return found;
+    }
+
+    private static <V> int resolve(V[] out, int index, boolean isFound, V value) {
+        if (out != null) {
+            out[index] = value;
+        }
+        return isFound ? 1 : 0;
+    }
+
+    //endregion
+
+    //region Batched mutation
+
+    /**
+     * A list of puts and removes to apply to a map all at once, through {@link #applyBatch(Batch)}. Operations on the
+     * same key take effect in the order they were added.
+     */
+    @Beta
+    public static final class Batch<K,V> {
+        private static final Object REMOVE = new Object();
+
+        private Object[] keys = new Object[16];
+        private Object[] values = new Object[16];
+        private int size;
+
+        public Batch<K,V> put(K key, V value) {
+            return add(key, value);
+        }
+
+        public Batch<K,V> remove(K key) {
+            return add(key, REMOVE);
+        }
+
+        private Batch<K,V> add(Object key, Object value) {
+            if (size == keys.length) {
+                keys = MoreArrays.copyToLength(keys, 2 * size);
+                values = MoreArrays.copyToLength(values, 2 * size);
+            }
+            keys[size] = key;
+            values[size] = value;
+            size++;
+            return this;
+        }
+
+        /**
+         * The number of operations in the batch.
+         */
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * The aggregate outcome of {@link #applyBatch(Batch)}.
+     */
+    @Beta
+    public static final class BatchSummary {
+        private int inserted;
+        private int replaced;
+        private int removed;
+
+        /** The number of puts of a key that was not in the map. */
+        public int inserted() { return inserted; }
+
+        /** The number of puts of a key that was already in the map. */
+        public int replaced() { return replaced; }
+
+        /** The number of removes of a key that was in the map. */
+        public int removed() { return removed; }
+
+        @Override
+        public String toString() {
+            return "BatchSummary{inserted=" + inserted + ", replaced=" + replaced + ", removed=" + removed + "}";
+        }
+    }
+
+    /**
+     * The batch operations sorted by their bit-reversed hash; which puts the operations that share a path through
+     * the trie next to each other, at every level. Ties keep the order they were added.
+     */
+    static final class BatchEditor<K,V> {
+        final long generation;
+        private final Batch<? extends K, ? extends V> batch;
+        private final int[] order;
+        private final int[] hashes;
+        private final Change<V> change = new Change<>();
+        final BatchSummary summary = new BatchSummary();
+
+        BatchEditor(long generation, Batch<? extends K, ? extends V> batch) {
+            this.generation = generation;
+            this.batch = batch;
+
+            final int count = batch.size;
+            long[] sorted = new long[count];
+            for (int i = 0; i < count; i++) {
+                int keyHash = Objects.hashCode(batch.keys[i]);
+                sorted[i] = ((long) Integer.reverse(keyHash) << 32) | i;
+            }
+            Arrays.sort(sorted);
+
+            this.order = new int[count];
+            this.hashes = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = (int) sorted[i];
+                hashes[i] = Integer.reverse((int) (sorted[i] >>> 32));
+            }
+        }
+
+        int size() {
+            return order.length;
+        }
+
+        int hashAt(int i) {
+            return hashes[i];
+        }
+
+        Node<K,V> apply(Node<K,V> node, int i, int shift) {
+            @SuppressWarnings("unchecked")
+            K key = (K) batch.keys[order[i]];
+            Object value = batch.values[order[i]];
+
+            if (value == Batch.REMOVE) {
+                node = node.remove(generation, key, hashes[i], shift, change);
+            } else {
+                @SuppressWarnings("unchecked")
+                V newValue = (V) value;
+                node = node.put(generation, key, newValue, hashes[i], shift, change);
+            }
+            count(value == Batch.REMOVE);
+            return node;
+        }
+
+        BitmapIndexNode<K,V> apply(BitmapIndexNode<K,V> node, int i, int shift) {
+            return (BitmapIndexNode<K, V>) apply((Node<K,V>) node, i, shift);
+        }
+
+        private void count(boolean isRemove) {
+            if (change.isModified()) {
+                if (isRemove) {
+                    summary.removed++;
+                } else if (change.isReplaced()) {
+                    summary.replaced++;
+                } else {
+                    summary.inserted++;
+                }
+            }
+            change.isModifiedAndClear();
+        }
+    }
+
+    /**
+     * Apply all of the batch's operations in one pass over the trie. Compared to applying the operations one at a time,
+     * each affected node is visited&mdash;and copied or edited&mdash;only once.
+     *
+     * @return how many keys were inserted, replaced, and removed
+     */
+    @Beta
+    public BatchSummary applyBatch(Batch<? extends K, ? extends V> batch) {
+        BatchEditor<K,V> editor = new BatchEditor<>(generation, batch);
+        if (editor.size() > 0) {
+            root = root.applyBatch(editor, 0, editor.size(), 0);
+        }
+
+        BatchSummary summary = editor.summary;
+        size += summary.inserted - summary.removed;
+        return summary;
+    }
+
+    //endregion
+
+    //region Parallel construction
+
+    /**
+     * Below this many entries the branches are built one after the other; the forking isn't worth it.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    /**
+     * Entries split by their branch from the root, in encounter order. As the branches are disjoint subtrees, each
+     * can be built independently of the others.
+     */
+    static final class Partitions<K,V> {
+        private static final int INITIAL_CAPACITY = 4;
+
+        private final Object[][] keys = new Object[BIT_PARTITION_MASK + 1][];
+        private final Object[][] values = new Object[BIT_PARTITION_MASK + 1][];
+        private final int[][] hashes = new int[BIT_PARTITION_MASK + 1][];
+        private final int[] counts = new int[BIT_PARTITION_MASK + 1];
+        private int size;
+
+        void add(K key, V value) {
+            int keyHash = Objects.hashCode(key);
+            int mask = mask(keyHash, 0);
+            int count = counts[mask];
+
+            if (keys[mask] == null) {
+                keys[mask] = new Object[INITIAL_CAPACITY];
+                values[mask] = new Object[INITIAL_CAPACITY];
+                hashes[mask] = new int[INITIAL_CAPACITY];
+            } else if (count == keys[mask].length) {
+                keys[mask] = MoreArrays.copyToLength(keys[mask], 2 * count);
+                values[mask] = MoreArrays.copyToLength(values[mask], 2 * count);
+                hashes[mask] = Arrays.copyOf(hashes[mask], 2 * count);
+            }
+
+            keys[mask][count] = key;
+            values[mask][count] = value;
+            hashes[mask][count] = keyHash;
+            counts[mask] = count + 1;
+            size++;
+        }
+
+        /**
+         * Append the other's entries to this; as the combining step of a collector.
+         */
+        Partitions<K,V> addAll(Partitions<? extends K, ? extends V> other) {
+            for (int mask = 0; mask <= BIT_PARTITION_MASK; mask++) {
+                int otherCount = other.counts[mask];
+                if (otherCount == 0) {
+                    continue;
+                }
+
+                int count = counts[mask];
+                int newCount = count + otherCount;
+                keys[mask] = keys[mask] == null ? new Object[newCount] : MoreArrays.copyToLength(keys[mask], newCount);
+                values[mask] = values[mask] == null ? new Object[newCount] : MoreArrays.copyToLength(values[mask], newCount);
+                hashes[mask] = hashes[mask] == null ? new int[newCount] : Arrays.copyOf(hashes[mask], newCount);
+
+                System.arraycopy(other.keys[mask], 0, keys[mask], count, otherCount);
+                System.arraycopy(other.values[mask], 0, values[mask], count, otherCount);
+                System.arraycopy(other.hashes[mask], 0, hashes[mask], count, otherCount);
+                counts[mask] = newCount;
+            }
+            size += other.size;
+            return this;
+        }
+    }
+
+    /**
+     * A map of the given entries, with the root's branches built in parallel.
+     */
+    @Beta
+    public static <K,V> CowHashMap<K,V> parallelCopyOf(Map<? extends K, ? extends V> map) {
+        CowHashMap<K,V> copy = new CowHashMap<>();
+        copy.parallelPutAll(map);
+        return copy;
+    }
+
+    /**
+     * {@link #putAll(Map)}, but with each of the root's branches updated in parallel.
+     */
+    @Beta
+    public void parallelPutAll(Map<? extends K, ? extends V> map) {
+        if (map.size() < PARALLEL_THRESHOLD) {
+            putAll(map);
+            return;
+        }
+
+        Partitions<K,V> partitions = map.entrySet().parallelStream().collect(
+            Partitions::new,
+            (parts, entry) -> parts.add(entry.getKey(), entry.getValue()),
+            Partitions::addAll);
+        putPartitions(partitions);
+    }
+
+    /**
+     * Each non-empty partition gets its own task, which owns a slice of the root holding only its branch. The tasks
+     * share no mutable nodes, so the branches they own can be edited in place without coordination. Finally the
+     * slices are stitched back into a new root.
+     */
+    void putPartitions(Partitions<? extends K, ? extends V> partitions) {
+        final long generation = this.generation;
+        @SuppressWarnings("unchecked")
+        final BitmapIndexNode<K,V> base = root instanceof FlatNode<?,?>
+            ? ((FlatNode<K,V>) root).toTrie(generation)
+            : (BitmapIndexNode<K,V>) root;
+
+        @SuppressWarnings("unchecked")
+        final BitmapIndexNode<K,V>[] slices =
+            (BitmapIndexNode<K,V>[]) new BitmapIndexNode<?,?>[BIT_PARTITION_MASK + 1];
+        final int[] inserted = new int[BIT_PARTITION_MASK + 1];
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int m = 0; m <= BIT_PARTITION_MASK; m++) {
+            if (partitions.counts[m] == 0) {
+                continue;
+            }
+
+            final int mask = m;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                Change<V> change = new Change<>();
+                BitmapIndexNode<K,V> slice = base.slice(generation, bitpos(mask));
+
+                Object[] keys = partitions.keys[mask];
+                Object[] values = partitions.values[mask];
+                int[] hashes = partitions.hashes[mask];
+                for (int i = 0, count = partitions.counts[mask]; i < count; i++) {
+                    @SuppressWarnings("unchecked") K key = (K) keys[i];
+                    @SuppressWarnings("unchecked") V value = (V) values[i];
+
+                    slice = slice.put(generation, key, value, hashes[i], 0, change);
+                    if (change.isModified() && !change.isReplaced()) {
+                        inserted[mask]++;
+                    }
+                    change.isModifiedAndClear();
+                }
+
+                slices[mask] = slice;
+            }));
+        }
+
+        if (partitions.size < PARALLEL_THRESHOLD) {
+            tasks.forEach(ForkJoinTask::invoke);
+        } else {
+            ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        }
+
+        root = BitmapIndexNode.stitch(generation, base, slices);
+        for (int count : inserted) {
+            size += count;
+        }
+    }
+
+    //endregion
+
     //region Views
 
     private transient Set<Entry<K, V>> entries;
@@ -1081,7 +1950,7 @@ public class CowHashMap<K,V> implements CowMap<K,V> {
     @SuppressWarnings("unchecked")
     public void clear() {
         this.size = 0;
-        this.root = (BitmapIndexNode<K, V>) EMPTY_NODE;
+        this.root = (Node<K, V>) EMPTY_FLAT_NODE;
     }
 
     protected Change<V> removeKey(Object key, int keyHash) {
@@ -0,0 +1,1011 @@
+package com.github.grignaak.collections;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import javax.annotation.Nonnull;
+
+import com.github.grignaak.collections.impl.Beta;
+
+/**
+ * An ordered copy-on-write map keyed by primitive {@code long}s, such as timestamps; utilizing shared structure when
+ * feasible.
+ *
+ * <p>The map is a {@code Map<Long,V>}, but the {@code long} overloads&mdash;and {@link #forEachEntry} and
+ * {@link #forEachInRange}&mdash;never box a key.</p>
+ *
+ * <h3>Implementation notes</h3>
+ *
+ * The current implementation (subject to change) is the same 32-way b-tree as {@link CowTreeMap}; except that the keys
+ * of each node are a {@code long[]}. There is no comparator to call, and the search reads the keys themselves rather
+ * than a pointer to each one.
+ */
+@Beta
+public final class CowLongTreeMap<V> extends AbstractMap<Long,V> implements CowOrderedMap<Long,V> {
+    private static final int MIN_CHILDREN = 16;
+    private static final int MAX_CHILDREN = 2*MIN_CHILDREN;
+    private static final int MIN_KEYS = MIN_CHILDREN - 1;
+    private static final int MAX_KEYS = MAX_CHILDREN - 1;
+
+    static final class Node<V> {
+        private final long generation;
+        long[] keys;
+        Object[] values;
+        /** Null in a leaf. */
+        Object[] children;
+
+        Node(long generation, long[] keys, Object[] values, Object[] children) {
+            this.generation = generation;
+            this.keys = keys;
+            this.values = values;
+            this.children = children;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder str = new StringBuilder(isLeaf() ? "Leaf" : "Node").append("{");
+            for (int i = 0; i < keys.length; i++) {
+                if (i > 0) {
+                    str.append(", ");
+                }
+                str.append(keys[i]).append("=").append(values[i]);
+            }
+            return str.append("}").toString();
+        }
+
+        int numKeys() {
+            return keys.length;
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        /**
+         * As in {@link Arrays#binarySearch(long[], long)}. It is a lower-bound search, so each step makes one
+         * comparison; and one which the JIT can turn into a conditional move rather than a branch.
+         */
+        int searchKeys(long key) {
+            long[] keys = this.keys;
+            int low = 0;
+            int len = keys.length;
+            while (len > 1) {
+                int half = len >>> 1;
+                low = keys[low + half - 1] < key ? low + half : low;
+                len -= half;
+            }
+            if (len == 1 && keys[low] < key) {
+                low++;
+            }
+            return low < keys.length && keys[low] == key ? low : -(low + 1);
+        }
+
+        /**
+         * The index of the first key at or above the given key.
+         */
+        int lowerBound(long key) {
+            int index = searchKeys(key);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        long keyAt(int index) {
+            return keys[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        V valueAt(int index) {
+            return (V) values[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        Node<V> childAt(int index) {
+            return (Node<V>) children[index];
+        }
+
+        /**
+         * A new node of the keys in {@code [from, to)}, along with the children between them.
+         */
+        private Node<V> slice(long generation, int from, int to) {
+            return new Node<>(generation,
+                Arrays.copyOfRange(keys, from, to),
+                Arrays.copyOfRange(values, from, to),
+                isLeaf() ? null : Arrays.copyOfRange(children, from, to + 1));
+        }
+
+        /**
+         * <pre>
+         *      [ - - D - - ]           [ - - B D - - ]
+         *           /           =>          / \
+         *    [ - A B C -]            [ - A ]   [ C - ]
+         * </pre>
+         */
+        Node<V> splitChildAt(long generation, int index, Node<V> child) {
+            Node<V> left = child.slice(generation, 0, MIN_KEYS);
+            Node<V> right = child.slice(generation, MIN_KEYS + 1, MAX_KEYS);
+
+            Node<V> parent = new Node<>(generation,
+                MoreArrays.arrayCopyAndInsert(keys, index, child.keyAt(MIN_KEYS)),
+                MoreArrays.arrayCopyAndInsert(values, index, child.valueAt(MIN_KEYS)),
+                MoreArrays.arrayCopyAndInsert(children, index + 1, right));
+            parent.children[index] = left;
+
+            return parent;
+        }
+
+        Node<V> insertIntoLeafAt(long generation, int index, long key, V value) {
+            return edit(generation,
+                MoreArrays.arrayCopyAndInsert(keys, index, key),
+                MoreArrays.arrayCopyAndInsert(values, index, value),
+                null);
+        }
+
+        Node<V> replaceValueAt(long generation, int index, V value) {
+            Node<V> node = editable(generation);
+            node.values[index] = value;
+            return node;
+        }
+
+        /**
+         * <pre>
+         *     [ A B C ]    =>    [ A C ]
+         * </pre>
+         */
+        Node<V> removeFromLeafAt(long generation, int index) {
+            if (keys.length == 1) {
+                // this only ever happens at the root of the tree
+                return emptyNode();
+            } else {
+                return edit(generation,
+                    MoreArrays.arrayCopyAndRemove(keys, index),
+                    MoreArrays.arrayCopyAndRemove(values, index),
+                    null);
+            }
+        }
+
+        Node<V> squash() {
+            if (keys.length > 0 || isLeaf()) {
+                return this;
+            } else {
+                return childAt(0);
+            }
+        }
+
+        /**
+         * Give the child at the index more than the minimum number of keys: from a sibling that can spare one, or else
+         * by merging with a sibling.
+         */
+        Node<V> mergeChildAt(long generation, int index) {
+            int leftKeys = index == 0 ? 0 : childAt(index - 1).numKeys();
+            int rightKeys = index == keys.length ? 0 : childAt(index + 1).numKeys();
+
+            if (leftKeys > MIN_KEYS) {
+                return rotateRightAt(generation, index - 1);
+            } else if (rightKeys > MIN_KEYS) {
+                return rotateLeftAt(generation, index);
+            } else if (index < keys.length) {
+                return mergeChildrenAt(generation, index);
+            } else {
+                return mergeChildrenAt(generation, index - 1);
+            }
+        }
+
+        /**
+         * <pre>
+         *      [ - A C E - ]             [ - A E - ]
+         *           / \            =>         |
+         *    [ - B ]   [ D - - ]              [ - B C D - ]
+         * </pre>
+         */
+        Node<V> mergeChildrenAt(long generation, int index) {
+            Node<V> left = childAt(index);
+            Node<V> right = childAt(index + 1);
+            int leftKeys = left.numKeys();
+            int rightKeys = right.numKeys();
+
+            long[] mergedKeys = new long[leftKeys + 1 + rightKeys];
+            System.arraycopy(left.keys, 0, mergedKeys, 0, leftKeys);
+            mergedKeys[leftKeys] = keys[index];
+            System.arraycopy(right.keys, 0, mergedKeys, leftKeys + 1, rightKeys);
+
+            Object[] mergedValues = new Object[leftKeys + 1 + rightKeys];
+            System.arraycopy(left.values, 0, mergedValues, 0, leftKeys);
+            mergedValues[leftKeys] = values[index];
+            System.arraycopy(right.values, 0, mergedValues, leftKeys + 1, rightKeys);
+
+            Object[] mergedChildren = null;
+            if (!left.isLeaf()) {
+                mergedChildren = new Object[leftKeys + rightKeys + 2];
+                System.arraycopy(left.children, 0, mergedChildren, 0, leftKeys + 1);
+                System.arraycopy(right.children, 0, mergedChildren, leftKeys + 1, rightKeys + 1);
+            }
+
+            Node<V> node = edit(generation,
+                MoreArrays.arrayCopyAndRemove(keys, index),
+                MoreArrays.arrayCopyAndRemove(values, index),
+                MoreArrays.arrayCopyAndRemove(children, index));
+            node.children[index] = new Node<>(generation, mergedKeys, mergedValues, mergedChildren);
+            return node;
+        }
+
+        /**
+         * <pre>
+         *     [ - - - A - - - ]          [ - - - B - - - ]
+         *            / \           =>           / \
+         *     [ - - ]   [ B - - ]      [ - - A ]   [ - - ]
+         * </pre>
+         */
+        private Node<V> rotateLeftAt(long generation, int index) {
+            Node<V> leftChild = childAt(index);
+            Node<V> rightChild = childAt(index + 1);
+            int leftKeys = leftChild.numKeys();
+
+            Node<V> newLeftChild = new Node<>(generation,
+                MoreArrays.arrayCopyAndInsert(leftChild.keys, leftKeys, keys[index]),
+                MoreArrays.arrayCopyAndInsert(leftChild.values, leftKeys, values[index]),
+                leftChild.isLeaf() ? null : MoreArrays.arrayCopyAndInsert(leftChild.children, leftKeys + 1, rightChild.children[0]));
+
+            Node<V> newRightChild = new Node<>(generation,
+                MoreArrays.arrayCopyAndRemove(rightChild.keys, 0),
+                MoreArrays.arrayCopyAndRemove(rightChild.values, 0),
+                rightChild.isLeaf() ? null : MoreArrays.arrayCopyAndRemove(rightChild.children, 0));
+
+            Node<V> node = editable(generation);
+            node.keys[index] = rightChild.keys[0];
+            node.values[index] = rightChild.values[0];
+            node.children[index] = newLeftChild;
+            node.children[index + 1] = newRightChild;
+            return node;
+        }
+
+        /**
+         * <pre>
+         *     [ - - - B - - - ]      [ - - - A - - - ]
+         *            / \         =>         / \
+         *   [ - - A ]   [ - - ]      [ - - ]   [ B - - ]
+         * </pre>
+         */
+        private Node<V> rotateRightAt(long generation, int index) {
+            Node<V> leftChild = childAt(index);
+            Node<V> rightChild = childAt(index + 1);
+            int leftLastIndex = leftChild.numKeys() - 1;
+
+            Node<V> newLeftChild = new Node<>(generation,
+                MoreArrays.arrayCopyAndRemove(leftChild.keys, leftLastIndex),
+                MoreArrays.arrayCopyAndRemove(leftChild.values, leftLastIndex),
+                leftChild.isLeaf() ? null : MoreArrays.arrayCopyAndRemove(leftChild.children, leftLastIndex + 1));
+
+            Node<V> newRightChild = new Node<>(generation,
+                MoreArrays.arrayCopyAndInsert(rightChild.keys, 0, keys[index]),
+                MoreArrays.arrayCopyAndInsert(rightChild.values, 0, values[index]),
+                rightChild.isLeaf() ? null : MoreArrays.arrayCopyAndInsert(rightChild.children, 0, leftChild.children[leftLastIndex + 1]));
+
+            Node<V> node = editable(generation);
+            node.keys[index] = leftChild.keys[leftLastIndex];
+            node.values[index] = leftChild.values[leftLastIndex];
+            node.children[index] = newLeftChild;
+            node.children[index + 1] = newRightChild;
+            return node;
+        }
+
+        private Node<V> edit(long generation, long[] newKeys, Object[] newValues, Object[] newChildren) {
+            if (generation == this.generation) {
+                keys = newKeys;
+                values = newValues;
+                children = newChildren;
+                return this;
+            } else {
+                return new Node<>(generation, newKeys, newValues, newChildren);
+            }
+        }
+
+        /**
+         * Every array is copied, since an editable node may change any of them in place.
+         */
+        Node<V> editable(long generation) {
+            return generation == this.generation ? this :
+                new Node<>(generation, keys.clone(), values.clone(), children == null ? null : children.clone());
+        }
+    }
+
+    private static final Node<?> EMPTY_NODE = new Node<>(-1, new long[0], new Object[0], null);
+
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V> emptyNode() {
+        return (Node<V>) EMPTY_NODE;
+    }
+
+    private long generation;
+    private int size;
+    private Node<V> root;
+
+    public CowLongTreeMap() {
+        this(EMPTY_NODE.generation + 1, 0, emptyNode());
+    }
+
+    private CowLongTreeMap(long generation, int size, Node<V> root) {
+        this.size = size;
+        this.root = root;
+
+        this.generation = generation;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    //region lookups
+
+    public V get(long key) {
+        return getOrDefault(key, null);
+    }
+
+    public V getOrDefault(long key, V defaultValue) {
+        Node<V> cur = root;
+        for (;;) {
+            int index = cur.searchKeys(key);
+            if (index >= 0) {
+                return cur.valueAt(index);
+            } else if (cur.isLeaf()) {
+                return defaultValue;
+            } else {
+                cur = cur.childAt(-index - 1);
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        Node<V> cur = root;
+        for (;;) {
+            int index = cur.searchKeys(key);
+            if (index >= 0) {
+                return true;
+            } else if (cur.isLeaf()) {
+                return false;
+            } else {
+                cur = cur.childAt(-index - 1);
+            }
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        return key instanceof Long ? get(((Long) key).longValue()) : null;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        return key instanceof Long ? getOrDefault(((Long) key).longValue(), defaultValue) : defaultValue;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Long && containsKey(((Long) key).longValue());
+    }
+
+    /**
+     * @throws NoSuchElementException if the map is empty
+     */
+    public long firstKey() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        Node<V> cur = root;
+        while (!cur.isLeaf()) {
+            cur = cur.childAt(0);
+        }
+        return cur.keyAt(0);
+    }
+
+    /**
+     * @throws NoSuchElementException if the map is empty
+     */
+    public long lastKey() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        Node<V> cur = root;
+        while (!cur.isLeaf()) {
+            cur = cur.childAt(cur.numKeys());
+        }
+        return cur.keyAt(cur.numKeys() - 1);
+    }
+
+    //endregion
+
+    //region iteration
+
+    /**
+     * A consumer of the keys and values of the map; without boxing the keys.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    /**
+     * Perform the action for each entry, in ascending order. The action must not modify this map.
+     */
+    public void forEachEntry(EntryConsumer<? super V> action) {
+        Objects.requireNonNull(action);
+        forEachInRange(root, Long.MIN_VALUE, true, Long.MAX_VALUE, true, action);
+    }
+
+    /**
+     * Perform the action for each entry with a key in {@code [fromKey, toKey)}, in ascending order; in
+     * {@code O(log n)} time plus the entries visited. The action must not modify this map.
+     */
+    public void forEachInRange(long fromKey, long toKey, EntryConsumer<? super V> action) {
+        Objects.requireNonNull(action);
+        if (fromKey < toKey) {
+            forEachInRange(root, fromKey, true, toKey, false, action);
+        }
+    }
+
+    private static <V> void forEachInRange(Node<V> node, long lo, boolean loInclusive, long hi, boolean hiInclusive,
+                                           EntryConsumer<? super V> action) {
+        int start = loInclusive ? node.lowerBound(lo) : upperBound(node, lo);
+        int end = hiInclusive ? upperBound(node, hi) : node.lowerBound(hi);
+
+        if (node.isLeaf()) {
+            for (int i = start; i < end; i++) {
+                action.accept(node.keyAt(i), node.valueAt(i));
+            }
+        } else {
+            // only the children at the ends of the range straddle the bounds
+            for (int i = start; i < end; i++) {
+                forEachInRange(node.childAt(i), lo, loInclusive, hi, hiInclusive, action);
+                action.accept(node.keyAt(i), node.valueAt(i));
+            }
+            forEachInRange(node.childAt(end), lo, loInclusive, hi, hiInclusive, action);
+        }
+    }
+
+    /**
+     * The index of the first key above the given key.
+     */
+    private static int upperBound(Node<?> node, long key) {
+        int index = node.searchKeys(key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super Long, ? super V> action) {
+        Objects.requireNonNull(action);
+        forEachEntry(action::accept);
+    }
+
+    /**
+     * The path from the root to the current key, in arrays as deep as the tree.
+     */
+    private static final class NodeStack<V> {
+        private Node<V> root;
+        private Node<V>[] nodes;
+        /** For each frame: points at the next key to return; or just before */
+        private int[] indexes;
+        /** The current frame; or -1 when the stack is exhausted. */
+        private int top = -1;
+
+        NodeStack(Node<V> root) {
+            reset(root);
+        }
+
+        /**
+         * Start over from the root, which may have changed since; the stack is left exhausted.
+         */
+        void reset(Node<V> root) {
+            this.root = root;
+            this.top = -1;
+
+            int depth = 1;
+            for (Node<V> cur = root; !cur.isLeaf(); cur = cur.childAt(0)) {
+                depth++;
+            }
+            if (nodes == null || nodes.length < depth) {
+                @SuppressWarnings("unchecked")
+                Node<V>[] newNodes = (Node<V>[]) new Node<?>[depth];
+                nodes = newNodes;
+                indexes = new int[depth];
+            }
+        }
+
+        boolean hasKey() {
+            return top >= 0;
+        }
+
+        private void push(Node<V> node, int index) {
+            top++;
+            nodes[top] = node;
+            indexes[top] = index;
+        }
+
+        void first() {
+            top = -1;
+            if (root.numKeys() > 0) {
+                push(root, 0);
+                firstChild();
+            }
+        }
+
+        void last() {
+            top = -1;
+            if (root.numKeys() > 0) {
+                push(root, root.numKeys() - 1);
+                lastChild();
+            }
+        }
+
+        void before(long upperBound, boolean inclusive) {
+            top = -1;
+            if (root.numKeys() == 0)
+                return;
+
+            Node<V> node = root;
+            for (;;) {
+                int index = node.searchKeys(upperBound);
+                int insertion = -index - 1;
+                if (index >= 0) {
+                    push(node, index);
+                    if (!inclusive) {
+                        previous();
+                    }
+                    return;
+                } else if (node.isLeaf()) {
+                    push(node, insertion);
+                    previous();
+                    return;
+                } else {
+                    push(node, insertion - 1);
+                    node = node.childAt(insertion);
+                }
+            }
+        }
+
+        void after(long lowerBound, boolean inclusive) {
+            top = -1;
+            if (root.numKeys() == 0)
+                return;
+
+            Node<V> node = root;
+            for (;;) {
+                int index = node.searchKeys(lowerBound);
+                int insertion = -index - 1;
+                if (index >= 0) {
+                    push(node, index);
+                    if (!inclusive) {
+                        next();
+                    }
+                    return;
+                } else if (node.isLeaf()) {
+                    push(node, insertion - 1);
+                    next();
+                    return;
+                } else {
+                    push(node, insertion);
+                    node = node.childAt(insertion);
+                }
+            }
+        }
+
+        void next() {
+            Node<V> node = nodes[top];
+            int index = ++indexes[top];
+            if (index == ( node.isLeaf() ? node.numKeys() : node.numKeys() + 1 )) {
+                do {
+                    top--;
+                } while (top >= 0 && indexes[top] == nodes[top].numKeys());
+            } else if (!node.isLeaf()) {
+                push(node.childAt(index), 0);
+                firstChild();
+            }
+        }
+
+        private void firstChild() {
+            while (!nodes[top].isLeaf()) {
+                push(nodes[top].childAt(0), 0);
+            }
+        }
+
+        void previous() {
+            Node<V> node = nodes[top];
+            int index = --indexes[top];
+            if (index == ( node.isLeaf() ? -1 : -2 )) {
+                do {
+                    top--;
+                } while (top >= 0 && indexes[top] < 0);
+            } else if (!node.isLeaf()) {
+                Node<V> child = node.childAt(index + 1);
+                push(child, child.numKeys() - 1);
+                lastChild();
+            }
+        }
+
+        private void lastChild() {
+            while (!nodes[top].isLeaf()) {
+                Node<V> child = nodes[top].childAt(nodes[top].numKeys());
+                push(child, child.numKeys() - 1);
+            }
+        }
+
+        long getKey() { return nodes[top].keyAt(indexes[top]); }
+        V getValue() { return nodes[top].valueAt(indexes[top]); }
+    }
+
+    private final class LongEntry implements Entry<Long,V> {
+        private final long key;
+        private V value;
+
+        private LongEntry(long key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Long getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            this.value = value;
+            return CowLongTreeMap.this.put(key, value);
+        }
+
+        @Override
+        public String toString() {
+            return "<" + key + "=" + value + ">";
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry<?,?>)) return false;
+
+            Entry<?,?> that = (Entry<?, ?>) obj;
+            return Objects.equals(key, that.getKey()) && Objects.equals(value, that.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(key) ^ Objects.hashCode(value);
+        }
+    }
+
+    private abstract class EntryIter implements Iterator<Entry<Long,V>> {
+        final NodeStack<V> stack = new NodeStack<>(root);
+        LongEntry lastReturned;
+
+        abstract void advance();
+        abstract void seekPast(long key);
+
+        @Override
+        public boolean hasNext() {
+            return stack.hasKey();
+        }
+
+        @Override
+        public Entry<Long, V> next() {
+            if (!stack.hasKey())
+                throw new NoSuchElementException("Forget to call hasNext()?");
+
+            lastReturned = new LongEntry(stack.getKey(), stack.getValue());
+            advance();
+            return lastReturned;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null)
+                throw new IllegalStateException("Forget to call next()?");
+
+            long key = lastReturned.key;
+            CowLongTreeMap.this.remove(key);
+            lastReturned = null;
+
+            // The removal may have rearranged the nodes on our stack; find our place again.
+            if (stack.hasKey()) {
+                stack.reset(root);
+                seekPast(key);
+            }
+        }
+    }
+
+    private final class AscendingEntryIter extends EntryIter {
+        AscendingEntryIter() {
+            stack.first();
+        }
+
+        AscendingEntryIter(long lowerBoundExclusive) {
+            stack.after(lowerBoundExclusive, false);
+        }
+
+        @Override
+        void advance() {
+            stack.next();
+        }
+
+        @Override
+        void seekPast(long key) {
+            stack.after(key, false);
+        }
+    }
+
+    private final class DescendingEntryIter extends EntryIter {
+        DescendingEntryIter() {
+            stack.last();
+        }
+
+        DescendingEntryIter(long upperBoundExclusive) {
+            stack.before(upperBoundExclusive, false);
+        }
+
+        @Override
+        void advance() {
+            stack.previous();
+        }
+
+        @Override
+        void seekPast(long key) {
+            stack.before(key, false);
+        }
+    }
+
+    @Override @Nonnull
+    public Set<Entry<Long, V>> entrySet() {
+        return new AbstractSet<Entry<Long, V>>() {
+            @Override @Nonnull
+            public Iterator<Entry<Long, V>> iterator() {
+                return new AscendingEntryIter();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Iterable<Entry<Long, V>> descendingEntries() {
+        return DescendingEntryIter::new;
+    }
+
+    @Override
+    public Iterable<Entry<Long, V>> descendingEntriesBefore(Long upperBoundExclusive) {
+        return descendingEntriesBefore(upperBoundExclusive.longValue());
+    }
+
+    public Iterable<Entry<Long, V>> descendingEntriesBefore(long upperBoundExclusive) {
+        return () -> new DescendingEntryIter(upperBoundExclusive);
+    }
+
+    @Override
+    public Iterable<Entry<Long, V>> ascendingEntriesAfter(Long lowerBoundExclusive) {
+        return ascendingEntriesAfter(lowerBoundExclusive.longValue());
+    }
+
+    public Iterable<Entry<Long, V>> ascendingEntriesAfter(long lowerBoundExclusive) {
+        return () -> new AscendingEntryIter(lowerBoundExclusive);
+    }
+
+    //endregion
+
+    //region mutations
+
+    private static final Object ALWAYS_REMOVE = new Object();
+    private static final Object NOT_REMOVED = new Object();
+
+    @Override
+    public V put(Long key, V value) {
+        return put(key.longValue(), value);
+    }
+
+    public V put(long key, V value) {
+        return put(key, value, /*replace=*/true);
+    }
+
+    @Override
+    public V putIfAbsent(Long key, V value) {
+        return putIfAbsent(key.longValue(), value);
+    }
+
+    public V putIfAbsent(long key, V value) {
+        return put(key, value, /*replace=*/false);
+    }
+
+    @SuppressWarnings("OverlyLongMethod"/*top down b-tree*/)
+    private V put(long key, V value, boolean replaceCurrentValue) {
+        if (root.numKeys() == MAX_KEYS) {
+            root = new Node<V>(generation, new long[0], new Object[0], new Object[]{root})
+                .splitChildAt(generation, 0, root);
+        }
+
+        Node<V> fauxRoot = new Node<>(generation, new long[0], new Object[0], new Object[]{root});
+
+        Node<V> parent = fauxRoot;
+        int nodeIndex = 0;
+        Node<V> node = root;
+
+        // loop invariant: parent is editable
+        for (;;) {
+            int index = node.searchKeys(key);
+
+            if (index >= 0) {
+                V val = node.valueAt(index);
+                if (replaceCurrentValue) {
+                    parent.children[nodeIndex] = node.replaceValueAt(generation, index, value);
+                }
+                root = fauxRoot.childAt(0);
+                return val;
+            }
+
+            // The insertion point; N.B. may point _past_ the keys.
+            index = -index - 1;
+
+            if (node.isLeaf()) {
+                parent.children[nodeIndex] = node.insertIntoLeafAt(generation, index, key, value);
+                size++;
+                root = fauxRoot.childAt(0);
+                return null;
+            }
+
+            Node<V> child = node.childAt(index);
+            if (child.numKeys() == MAX_KEYS) {
+                node = node.splitChildAt(generation, index, child);
+                parent.children[nodeIndex] = node;
+
+                // the key location could have changed!
+                long separator = node.keyAt(index);
+                if (key == separator) {
+                    V val = node.valueAt(index);
+                    if (replaceCurrentValue) {
+                        parent.children[nodeIndex] = node.replaceValueAt(generation, index, value);
+                    }
+                    root = fauxRoot.childAt(0);
+                    return val;
+                } else if (key > separator) {
+                    index++;
+                }
+                child = node.childAt(index);
+            }
+
+            Node<V> nextParent = node.editable(generation);
+            parent.children[nodeIndex] = nextParent;
+            parent = nextParent;
+            nodeIndex = index;
+            node = child;
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        return key instanceof Long ? remove(((Long) key).longValue()) : null;
+    }
+
+    public V remove(long key) {
+        V val = doRemove(key, ALWAYS_REMOVE);
+        return val == NOT_REMOVED ? null : val;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return key instanceof Long && doRemove((Long) key, value) != NOT_REMOVED;
+    }
+
+    /**
+     * A top-down removal, as in {@link CowTreeMap}: before descending into a child, the child is given more than the
+     * minimum number of keys. So the removal from the leaf never has to back up the tree.
+     */
+    @SuppressWarnings("OverlyLongMethod"/*top down b-tree*/)
+    private V doRemove(long key, Object expectedValue) {
+        // Look before we leap; the removal copies every node on the way down, which is a waste if nothing is removed.
+        V removed;
+        Node<V> cur = root;
+        for (;;) {
+            int index = cur.searchKeys(key);
+            if (index >= 0) {
+                removed = cur.valueAt(index);
+                break;
+            } else if (cur.isLeaf()) {
+                @SuppressWarnings("unchecked")
+                V notRemoved = (V) NOT_REMOVED;
+                return notRemoved;
+            } else {
+                cur = cur.childAt(-index - 1);
+            }
+        }
+
+        if (expectedValue != ALWAYS_REMOVE && !Objects.equals(expectedValue, removed)) {
+            @SuppressWarnings("unchecked")
+            V notRemoved = (V) NOT_REMOVED;
+            return notRemoved;
+        }
+
+        Node<V> node = root.editable(generation);
+        Node<V> fauxRoot = new Node<>(generation, new long[0], new Object[0], new Object[]{node});
+        Node<V> parent = fauxRoot;
+        int nodeIndex = 0;
+
+        // loop invariant: node is editable and has the key somewhere in its subtree
+        for (;;) {
+            int index = node.searchKeys(key);
+            if (node.isLeaf()) {
+                parent.children[nodeIndex] = node.removeFromLeafAt(generation, index);
+                break;
+            }
+
+            int childIndex;
+            if (index >= 0) {
+                Node<V> left = node.childAt(index);
+                Node<V> right = node.childAt(index + 1);
+
+                if (left.numKeys() > MIN_KEYS) {
+                    // swap in the predecessor, then go remove the predecessor instead
+                    Node<V> leaf = left;
+                    while (!leaf.isLeaf()) {
+                        leaf = leaf.childAt(leaf.numKeys());
+                    }
+                    key = leaf.keyAt(leaf.numKeys() - 1);
+                    node.keys[index] = key;
+                    node.values[index] = leaf.values[leaf.numKeys() - 1];
+                    childIndex = index;
+                } else if (right.numKeys() > MIN_KEYS) {
+                    // ...or the successor
+                    Node<V> leaf = right;
+                    while (!leaf.isLeaf()) {
+                        leaf = leaf.childAt(0);
+                    }
+                    key = leaf.keyAt(0);
+                    node.keys[index] = key;
+                    node.values[index] = leaf.values[0];
+                    childIndex = index + 1;
+                } else {
+                    // how very unlucky. We'll have to push the key down into a merged node.
+                    node = node.mergeChildrenAt(generation, index);
+                    childIndex = index;
+                }
+            } else {
+                childIndex = -index - 1;
+                if (node.childAt(childIndex).numKeys() == MIN_KEYS) {
+                    node = node.mergeChildAt(generation, childIndex);
+
+                    // the child may have merged with its left sibling
+                    childIndex = -node.searchKeys(key) - 1;
+                }
+            }
+
+            Node<V> child = node.childAt(childIndex).editable(generation);
+            node.children[childIndex] = child;
+
+            parent = node;
+            nodeIndex = childIndex;
+            node = child;
+        }
+
+        size--;
+        root = fauxRoot.childAt(0).squash();
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        root = emptyNode();
+        size = 0;
+    }
+
+    @Override
+    public CowLongTreeMap<V> fork() {
+        return new CowLongTreeMap<>(++generation, size, root);
+    }
+
+    //endregion
+}
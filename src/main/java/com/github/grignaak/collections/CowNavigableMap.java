@@ -0,0 +1,37 @@
+package com.github.grignaak.collections;
+
+import java.util.NavigableMap;
+
+import com.github.grignaak.collections.impl.Beta;
+
+/**
+ * A copy-on-write {@link NavigableMap}. The range views are live views of this map; and they too can be forked, which
+ * gives an independent copy of just the range.
+ */
+@Beta
+public interface CowNavigableMap<K,V> extends CowOrderedMap<K,V>, NavigableMap<K,V> {
+    /**
+     * {@inheritDoc}
+     */
+    @Override CowNavigableMap<K,V> fork();
+
+    @Override CowNavigableMap<K,V> descendingMap();
+
+    @Override CowNavigableMap<K,V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive);
+    @Override CowNavigableMap<K,V> headMap(K toKey, boolean inclusive);
+    @Override CowNavigableMap<K,V> tailMap(K fromKey, boolean inclusive);
+
+    @Override default CowNavigableMap<K,V> subMap(K fromKey, K toKey) { return subMap(fromKey, true, toKey, false); }
+    @Override default CowNavigableMap<K,V> headMap(K toKey) { return headMap(toKey, false); }
+    @Override default CowNavigableMap<K,V> tailMap(K fromKey) { return tailMap(fromKey, true); }
+
+    @Override
+    default Iterable<Entry<K,V>> descendingEntriesBefore(K upperBoundExclusive) {
+        return headMap(upperBoundExclusive, false).descendingEntries();
+    }
+
+    @Override
+    default Iterable<Entry<K,V>> ascendingEntriesAfter(K lowerBoundExclusive) {
+        return tailMap(lowerBoundExclusive, false).entrySet();
+    }
+}
@@ -1,15 +1,28 @@
 package com.github.grignaak.collections;
 
 import java.util.AbstractMap;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 import javax.annotation.Nonnull;
 
+import com.github.grignaak.collections.impl.Beta;
+
 /**
  * An ordered, tree-based copy-on-write map, utilizing shared structure when feasible.
  *
@@ -18,24 +31,77 @@ import javax.annotation.Nonnull;
  * The current implementation (subject to change) is a 32-way b-tree. In practice this means that structural sharing
  * doesn't start until after the map has 32 entries; and then happens at 32-entry chunks. We found this to utilize cache
  * lines and also be a good balance in structural sharing.
+ *
+ * <p>The fanout may be chosen when the map is created. Wider nodes mean a shallower tree, and fewer comparisons
+ * overall when comparing keys is expensive; narrower nodes copy less on each write.</p>
+ *
+ * <p>Putting keys in ascending order is cheap: the map remembers the path to its last leaf, and a key past the last
+ * one goes straight there with a single comparison, until the map is forked.</p>
+ *
+ * <p>Nodes which the map has not shared with a fork are edited in place. Once such a node fills up it grows to room for
+ * the most keys a node may have, so that later puts and removes only shift its entries over; a run of writes between
+ * forks makes little garbage. A fork shares those nodes, spare room and all, and trims whatever it copies.</p>
  */
-public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrderedMap<K,V> {
-    static final int MIN_CHILDREN = 16;
-    private static final int MAX_CHILDREN = 2*MIN_CHILDREN;
-    static final int MIN_KEYS = MIN_CHILDREN - 1;
-    static final int MAX_KEYS = MAX_CHILDREN - 1;
+public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowNavigableMap<K,V> {
+    static final int DEFAULT_FANOUT = 32;
+    static final int MIN_FANOUT = 8;
+    static final int MAX_FANOUT = 128;
 
+    /**
+     * A node keeps everything in one array, in blocks: first the keys, so that the binary search reads them
+     * contiguously; then the values; then, unless a leaf, the children. Each block has room for {@link #capacity}
+     * entries (and one more child).
+     */
     static class Node<K,V> {
         private final long generation;
         int numKeys;
+        /**
+         * The number of entries the array has room for. A node starts out with no room to spare; once a node of the
+         * current generation runs out, it grows to the most keys a node may have, so that later inserts and removes
+         * just shift its entries over. Copies for a new generation are trimmed to fit again.
+         */
+        int capacity;
+        /** The number of keys in this node and all of its descendants. */
+        int size;
         Object[] nodes;
+        /**
+         * The aggregate of the values in this node and all of its descendants, when the map has an aggregation; or
+         * {@link #STALE} until the map refreshes the node after editing it.
+         */
+        Object aggregate = STALE;
+        /**
+         * The abbreviated keys, when the map abbreviates its keys; or null until the map refreshes the node after its
+         * keys change. Never changed in place, so nodes may share it.
+         */
+        long[] abbreviations;
+        /**
+         * The sum of the hash codes of the entries in this node and all of its descendants, as {@link Map#hashCode()}
+         * has it; or {@link #UNHASHED} until asked for. Goes stale along with the aggregate. Forks sharing the node may
+         * race to fill it in, but they all write the same value.
+         */
+        int hash = UNHASHED;
 
-        Node(long generation, int numKeys, Object[] nodes) {
+        Node(long generation, int numKeys, int size, Object[] nodes) {
             this.generation = generation;
             this.numKeys = numKeys;
+            this.capacity = numKeys;
+            this.size = size;
             this.nodes = nodes;
         }
 
+        /**
+         * A node of the first {@code numKeys} keys and values, and&mdash;unless null&mdash;children.
+         */
+        static <K,V> Node<K,V> of(long generation, int numKeys, int size, Object[] keys, Object[] values, Object[] children) {
+            Object[] nodes = newNodes(numKeys, children == null);
+            System.arraycopy(keys, 0, nodes, 0, numKeys);
+            System.arraycopy(values, 0, nodes, numKeys, numKeys);
+            if (children != null) {
+                System.arraycopy(children, 0, nodes, 2*numKeys, numKeys + 1);
+            }
+            return new Node<>(generation, numKeys, size, nodes);
+        }
+
         @Override
         public String toString() {
             StringBuilder str = new StringBuilder(isLeaf() ? "Leaf" : "Node").append("{");
@@ -52,11 +118,11 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
         }
 
         boolean isLeaf() {
-            return 2*numKeys == nodes.length;
+            return 2*capacity == nodes.length;
         }
 
 
-        private static <K> int searchKeys(Object[] nodes, K key, int numKeys, Comparator<K> comparator) {
+        private static <K> int searchKeys(Object[] keys, K key, int numKeys, Comparator<K> comparator) {
             int low = 0;
             int high = numKeys - 1;
 
@@ -64,7 +130,7 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
                 int mid = (low + high) >>> 1;
 
                 @SuppressWarnings("unchecked")
-                K midVal = (K) nodes[keyIndex(mid)];
+                K midVal = (K) keys[mid];
                 int dir = comparator.compare(midVal, key);
                 if (dir < 0)
                     low = mid + 1;
@@ -80,6 +146,170 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
             return searchKeys(nodes, key, numKeys, cmp);
         }
 
+        /**
+         * As {@link #searchKeys(Object, Comparator)}; but comparing the abbreviated keys first, and the keys themselves
+         * only when the abbreviations tie.
+         */
+        int searchKeys(K key, long abbreviatedKey, Comparator<K> cmp) {
+            long[] abbreviations = this.abbreviations;
+            if (abbreviations == null) {
+                return searchKeys(nodes, key, numKeys, cmp);
+            }
+
+            int low = 0;
+            int high = numKeys - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+
+                int dir = Long.compareUnsigned(abbreviations[mid], abbreviatedKey);
+                if (dir == 0) {
+                    dir = cmp.compare(keyAt(mid), key);
+                }
+                if (dir < 0)
+                    low = mid + 1;
+                else if (dir > 0)
+                    high = mid - 1;
+                else
+                    return mid; // key found
+            }
+            return -(low + 1);  // key not found.
+        }
+
+        //region layout
+
+        private static Object[] newNodes(int capacity, boolean isLeaf) {
+            return new Object[isLeaf ? 2*capacity : 3*capacity + 1];
+        }
+
+        /** Copy the keys and values in {@code [from, from+count)} of one node's array to another's at {@code to}. */
+        private static void copyEntries(Object[] src, int srcCapacity, int from, Object[] dst, int dstCapacity, int to, int count) {
+            System.arraycopy(src, from, dst, to, count);
+            System.arraycopy(src, srcCapacity + from, dst, dstCapacity + to, count);
+        }
+
+        /** Copy the children in {@code [from, from+count)} of one node's array to another's at {@code to}. */
+        private static void copyChildren(Object[] src, int srcCapacity, int from, Object[] dst, int dstCapacity, int to, int count) {
+            System.arraycopy(src, 2*srcCapacity + from, dst, 2*dstCapacity + to, count);
+        }
+
+        private static void setEntry(Object[] nodes, int capacity, int index, Object key, Object value) {
+            nodes[index] = key;
+            nodes[capacity + index] = value;
+        }
+
+        private static void setChild(Object[] nodes, int capacity, int index, Object child) {
+            nodes[2*capacity + index] = child;
+        }
+
+        /**
+         * A copy of the array, with room for the given number of entries, with the entry inserted at the index; and,
+         * unless a leaf, the child inserted at the child index.
+         */
+        private Object[] copyAndInsert(int newCapacity, int index, K key, V value, int childIndex, Node<K,V> child) {
+            Object[] copy = newNodes(newCapacity, isLeaf());
+            copyEntries(nodes, capacity, 0, copy, newCapacity, 0, index);
+            setEntry(copy, newCapacity, index, key, value);
+            copyEntries(nodes, capacity, index, copy, newCapacity, index + 1, numKeys - index);
+            if (!isLeaf()) {
+                copyChildren(nodes, capacity, 0, copy, newCapacity, 0, childIndex);
+                setChild(copy, newCapacity, childIndex, child);
+                copyChildren(nodes, capacity, childIndex, copy, newCapacity, childIndex + 1, numKeys + 1 - childIndex);
+            }
+            return copy;
+        }
+
+        /**
+         * A copy of the array, with no room to spare, without the entry at the index; and, unless a leaf, without the
+         * child at the child index.
+         */
+        private Object[] copyAndRemove(int index, int childIndex) {
+            int newKeys = numKeys - 1;
+            Object[] copy = newNodes(newKeys, isLeaf());
+            copyEntries(nodes, capacity, 0, copy, newKeys, 0, index);
+            copyEntries(nodes, capacity, index + 1, copy, newKeys, index, numKeys - index - 1);
+            if (!isLeaf()) {
+                copyChildren(nodes, capacity, 0, copy, newKeys, 0, childIndex);
+                copyChildren(nodes, capacity, childIndex + 1, copy, newKeys, childIndex, numKeys - childIndex);
+            }
+            return copy;
+        }
+
+        /** A copy of the array with no room to spare. */
+        private Object[] copyTrimmed() {
+            if (capacity == numKeys) {
+                return nodes.clone();
+            }
+            Object[] copy = newNodes(numKeys, isLeaf());
+            copyEntries(nodes, capacity, 0, copy, numKeys, 0, numKeys);
+            if (!isLeaf()) {
+                copyChildren(nodes, capacity, 0, copy, numKeys, 0, numKeys + 1);
+            }
+            return copy;
+        }
+
+        /**
+         * Insert the entry at the index; and, unless a leaf, the child at the child index. A node of the editor's
+         * generation shifts its entries over in place, when it has the room; the rest are copied.
+         */
+        private Node<K,V> insertAt(CowTreeMap<K,V> editor, int index, K key, V value, int childIndex, Node<K,V> child,
+                                   int newSize) {
+            if (editor.generation != generation) {
+                return new Node<>(editor.generation, numKeys + 1, newSize,
+                    copyAndInsert(numKeys + 1, index, key, value, childIndex, child));
+            }
+
+            if (numKeys == capacity) {
+                int newCapacity = Math.max(editor.maxKeys, numKeys + 1);
+                nodes = copyAndInsert(newCapacity, index, key, value, childIndex, child);
+                capacity = newCapacity;
+            } else {
+                if (!isLeaf()) {
+                    int children = 2*capacity;
+                    System.arraycopy(nodes, children + childIndex, nodes, children + childIndex + 1, numKeys + 1 - childIndex);
+                    nodes[children + childIndex] = child;
+                }
+                System.arraycopy(nodes, capacity + index, nodes, capacity + index + 1, numKeys - index);
+                System.arraycopy(nodes, index, nodes, index + 1, numKeys - index);
+                setEntry(nodes, capacity, index, key, value);
+            }
+            numKeys++;
+            size = newSize;
+            aggregate = STALE;
+            hash = UNHASHED;
+            abbreviations = null;
+            return this;
+        }
+
+        /**
+         * Remove the entry at the index; and, unless a leaf, the child at the child index. A node of the given
+         * generation shifts its entries over in place, keeping its room; the rest are copied.
+         */
+        private Node<K,V> removeAt(long generation, int index, int childIndex, int newSize) {
+            if (generation != this.generation) {
+                return new Node<>(generation, numKeys - 1, newSize, copyAndRemove(index, childIndex));
+            }
+
+            int last = numKeys - 1;
+            System.arraycopy(nodes, index + 1, nodes, index, last - index);
+            System.arraycopy(nodes, capacity + index + 1, nodes, capacity + index, last - index);
+            nodes[last] = null;
+            nodes[capacity + last] = null;
+            if (!isLeaf()) {
+                int children = 2*capacity;
+                System.arraycopy(nodes, children + childIndex + 1, nodes, children + childIndex, numKeys - childIndex);
+                nodes[children + numKeys] = null;
+            }
+            numKeys--;
+            size = newSize;
+            aggregate = STALE;
+            hash = UNHASHED;
+            abbreviations = null;
+            return this;
+        }
+
+        //endregion
+
         /**
          * <pre>
          *      [ - - D - - ]           [ - - B D - - ]
@@ -87,59 +317,114 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
          *    [ - A B C -]            [ - A ]   [ C - ]
          * </pre>
          */
-        Node<K,V> splitChildAt(long generation, int index, Node<K, V> child) {
-            Node<K,V> left = new Node<>(generation, MIN_KEYS,
-                child.isLeaf() ?
-                    MoreArrays.copyToLength(child.nodes, 2*MIN_KEYS) :
-                    MoreArrays.appendRanges(
-                        child.nodes, 0, 2* MIN_KEYS,
-                        child.nodes, child.childIndex(0), MIN_CHILDREN));
-
-            Node<K,V> right = new Node<>(generation, MIN_KEYS,
-                child.isLeaf() ?
-                    Arrays.copyOfRange(child.nodes, keyIndex(MIN_KEYS+1), keyIndex(MAX_KEYS), Object[].class) :
-                    MoreArrays.appendRanges(
-                        child.nodes, keyIndex(MIN_KEYS+1), 2* MIN_KEYS,
-                        child.nodes, child.childIndex(MIN_CHILDREN), MIN_CHILDREN));
-
-            Node<K,V> parent = new Node<>(generation, numKeys+1,
-                MoreArrays.arrayCopyAndInsertPairAndElement(nodes,
-                    keyIndex(index), child.keyAt(MIN_KEYS), child.valueAt(MIN_KEYS),
-                    childIndex(index+1), right));
-            parent.nodes[parent.childIndex(index)] = left;
+        Node<K,V> splitChildAt(CowTreeMap<K,V> editor, int index, Node<K, V> child) {
+            int mid = child.numKeys / 2;
+            Node<K,V> left = child.slice(editor.generation, 0, mid);
+            Node<K,V> right = child.slice(editor.generation, mid + 1, child.numKeys);
+
+            long[] carried = abbreviations == null || child.abbreviations == null ? null :
+                MoreArrays.arrayCopyAndInsert(abbreviations, index, child.abbreviations[mid]);
+            Node<K,V> parent = insertAt(editor, index, child.keyAt(mid), child.valueAt(mid), index+1, right, size);
+            parent.replaceChildAt(index, left);
+            parent.abbreviations = carried;
 
             return parent;
         }
 
-        Node<K,V> insertIntoLeafAt(long generation, int index, K key, V value) {
-            return edit(generation, numKeys+1,
-                MoreArrays.arrayCopyAndInsert(nodes, keyIndex(index), key, value));
+        /**
+         * A new node of the keys in {@code [from, to)}, along with the children between them.
+         */
+        Node<K,V> slice(long generation, int from, int to) {
+            int sliceKeys = to - from;
+            Object[] sliced = newNodes(sliceKeys, isLeaf());
+            copyEntries(nodes, capacity, from, sliced, sliceKeys, 0, sliceKeys);
+
+            Node<K,V> slice;
+            if (isLeaf()) {
+                slice = new Node<>(generation, sliceKeys, sliceKeys, sliced);
+            } else {
+                copyChildren(nodes, capacity, from, sliced, sliceKeys, 0, sliceKeys + 1);
+                slice = new Node<>(generation, sliceKeys, sliceKeys + sizeOfChildren(from, to + 1), sliced);
+            }
+            if (abbreviations != null) {
+                slice.abbreviations = Arrays.copyOfRange(abbreviations, from, to);
+            }
+            return slice;
+        }
+
+        /**
+         * @param abbreviatedKey the key's abbreviation, if the map abbreviates its keys
+         */
+        Node<K,V> insertIntoLeafAt(CowTreeMap<K,V> editor, int index, K key, V value, long abbreviatedKey) {
+            long[] carried = abbreviations == null ? null :
+                MoreArrays.arrayCopyAndInsert(abbreviations, index, abbreviatedKey);
+            Node<K,V> node = insertAt(editor, index, key, value, 0, null, size+1);
+            node.abbreviations = carried;
+            return node;
+        }
+
+        /**
+         * Insert the key at the index, with the subtree of greater keys to its right.
+         */
+        Node<K,V> insertWithRightChildAt(CowTreeMap<K,V> editor, int index, K key, V value, Node<K,V> child) {
+            return insertAt(editor, index, key, value, index+1, child, size + 1 + child.size);
+        }
+
+        /**
+         * Insert the key at the index, with the subtree of lesser keys to its left.
+         */
+        Node<K,V> insertWithLeftChildAt(CowTreeMap<K,V> editor, int index, K key, V value, Node<K,V> child) {
+            return insertAt(editor, index, key, value, index, child, size + 1 + child.size);
         }
 
         Node<K,V> replaceValueAt(long generation, int index, V value) {
-            if (generation == this.generation) {
-                nodes[valueIndex(index)] = value;
-                return this;
+            Node<K,V> node = editable(generation);
+            node.nodes[node.valueIndex(index)] = value;
+            return node;
+        }
+
+        /**
+         * Replace the entry at the index with that at the other node's index. Precondition: the node is editable.
+         */
+        void replaceEntryAt(int index, Node<K,V> source, int sourceIndex) {
+            setEntry(nodes, capacity, index, source.keyAt(sourceIndex), source.valueAt(sourceIndex));
+            if (abbreviations != null && source.abbreviations != null) {
+                // perhaps shared with the node this one was copied from
+                abbreviations = abbreviations.clone();
+                abbreviations[index] = source.abbreviations[sourceIndex];
             } else {
-                return new Node<>(generation, numKeys,
-                    MoreArrays.arrayCopyAndReplace(nodes, valueIndex(index), value));
+                abbreviations = null;
             }
         }
 
-        private static int valueIndex(int index) {
-            return keyIndex(index) + 1;
+        /**
+         * The total size of the children in {@code [from, to)}; or zero for a leaf.
+         */
+        int sizeOfChildren(int from, int to) {
+            if (isLeaf()) {
+                return 0;
+            }
+
+            int sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += childAt(i).size;
+            }
+            return sum;
         }
 
-        private static int keyIndex(int index) {
-            return 2*index;
+        private int valueIndex(int index) {
+            return capacity + index;
         }
 
         private int childIndex(int index) {
-            return 2*numKeys + index;
+            return 2*capacity + index;
         }
 
+        /**
+         * Precondition: the node is editable.
+         */
         void replaceChildAt(int index, Node<K,V> child) {
-            nodes[childIndex(index)] = child;
+            setChild(nodes, capacity, index, child);
         }
 
         Node<K,V> squash() {
@@ -163,9 +448,9 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
             int leftKeys = index == 0 ? 0 : childAt(index - 1).numKeys;
             int rightKeys = index == numKeys ? 0 : childAt(index + 1).numKeys;
 
-            if (leftKeys > MIN_KEYS) {
+            if (leftKeys > editor.minKeys) {
                 return rotateRightAt(editor.generation, index-1);
-            } else if (rightKeys > MIN_KEYS) {
+            } else if (rightKeys > editor.minKeys) {
                 return rotateLeftAt(editor.generation, index);
             } else if (index < numKeys) {
                 return mergeChildrenAt(editor, index, index, childAt(index), childAt(index+1));
@@ -182,35 +467,57 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
          * </pre>
          */
         private Node<K, V> mergeChildrenAt(CowTreeMap<K, V> editor, int keyIndex, int childIndex, Node<K, V> left, Node<K, V> right) {
-            Object[] childNodes = left.isLeaf() ?
-                MoreArrays.appendRanges(
-                    left.nodes, 0, 2 * MIN_KEYS,
-                    this.nodes, keyIndex(keyIndex), 2,
-                    right.nodes, 0, 2 * MIN_KEYS) :
-                MoreArrays.appendRanges(
-                    left.nodes, 0, 2 * MIN_KEYS,
-                    this.nodes, keyIndex(keyIndex), 2,
-                    right.nodes, 0, 2 * MIN_KEYS,
-
-                    left.nodes, left.childIndex(0), MIN_CHILDREN,
-                    right.nodes, right.childIndex(0), MIN_CHILDREN);
-
-            Node<K,V> child = new Node<>(editor.generation, MAX_KEYS, childNodes);
-
-            Node<K, V> newNode = edit(editor.generation, numKeys - 1,
-                MoreArrays.arrayCopyAndRemovePairAndElement(nodes, keyIndex(keyIndex), childIndex(childIndex)));
-            newNode.nodes[newNode.childIndex(childIndex)] = child;
+            int mergedKeys = left.numKeys + right.numKeys + 1;
+            Object[] childNodes = newNodes(mergedKeys, left.isLeaf());
+            copyEntries(left.nodes, left.capacity, 0, childNodes, mergedKeys, 0, left.numKeys);
+            setEntry(childNodes, mergedKeys, left.numKeys, keyAt(keyIndex), valueAt(keyIndex));
+            copyEntries(right.nodes, right.capacity, 0, childNodes, mergedKeys, left.numKeys + 1, right.numKeys);
+            if (!left.isLeaf()) {
+                copyChildren(left.nodes, left.capacity, 0, childNodes, mergedKeys, 0, left.numKeys + 1);
+                copyChildren(right.nodes, right.capacity, 0, childNodes, mergedKeys, left.numKeys + 1, right.numKeys + 1);
+            }
+
+            Node<K,V> child = new Node<>(editor.generation, mergedKeys, left.size + right.size + 1, childNodes);
+
+            long[] carried = null;
+            if (abbreviations != null && left.abbreviations != null && right.abbreviations != null) {
+                long[] merged = new long[mergedKeys];
+                System.arraycopy(left.abbreviations, 0, merged, 0, left.numKeys);
+                merged[left.numKeys] = abbreviations[keyIndex];
+                System.arraycopy(right.abbreviations, 0, merged, left.numKeys + 1, right.numKeys);
+                child.abbreviations = merged;
+                carried = MoreArrays.arrayCopyAndRemove(abbreviations, keyIndex);
+            }
+
+            Node<K, V> newNode = removeAt(editor.generation, keyIndex, childIndex, size);
+            newNode.replaceChildAt(childIndex, child);
+            newNode.abbreviations = carried;
             return newNode;
         }
 
-        private Node<K,V> edit(long generation, int newNumKeys, Object[] newNodes) {
-            if (generation == this.generation) {
-                nodes = newNodes;
-                numKeys = newNumKeys;
+        /**
+         * Bring the child at the index up to the minimum number of keys: by rotating keys over from its sibling, or by
+         * merging with the sibling when together they fit in one node. The sibling must be at least the minimum.
+         */
+        Node<K,V> balanceChildAt(CowTreeMap<K,V> editor, int index) {
+            if (childAt(index).numKeys >= editor.minKeys) {
                 return this;
-            } else {
-                return new Node<>(generation, newNumKeys, newNodes);
             }
+
+            int leftIndex = index == 0 ? 0 : index - 1;
+            Node<K,V> left = childAt(leftIndex);
+            Node<K,V> right = childAt(leftIndex + 1);
+            if (left.numKeys + right.numKeys < editor.maxKeys) {
+                return mergeChildrenAt(editor, leftIndex, leftIndex, left, right);
+            }
+
+            Node<K,V> node = this;
+            while (node.childAt(index).numKeys < editor.minKeys) {
+                node = index == leftIndex ?
+                    node.rotateLeftAt(editor.generation, leftIndex) :
+                    node.rotateRightAt(editor.generation, leftIndex);
+            }
+            return node;
         }
 
         /**
@@ -224,35 +531,27 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
             Node<K,V> leftChild = childAt(index);
             Node<K,V> rightChild = childAt(index + 1);
             boolean areLeaves = leftChild.isLeaf();
+            Node<K,V> movedChild = areLeaves ? null : rightChild.childAt(0);
+            int movedSize = areLeaves ? 0 : movedChild.size;
 
-            Node<K,V> newLeftChild = new Node<>(generation, leftChild.numKeys+1,
-                areLeaves ?
-                    MoreArrays.arrayCopyAndAppend(leftChild.nodes, keyAt(index), valueAt(index)) :
-                    MoreArrays.arrayCopyAndInsertPairAndElement(leftChild.nodes, keyIndex(leftChild.numKeys), keyAt(index), valueAt(index),
-                        leftChild.childIndex(numKeys), rightChild.childAt(0)));
-
-            K newKey = rightChild.keyAt(0);
-            V newValue = rightChild.valueAt(0);
+            Node<K,V> newLeftChild = new Node<>(generation, leftChild.numKeys+1, leftChild.size + 1 + movedSize,
+                leftChild.copyAndInsert(leftChild.numKeys + 1, leftChild.numKeys, keyAt(index), valueAt(index),
+                    leftChild.numKeys + 1, movedChild));
 
-            Node<K,V> newRightChild = new Node<>(generation, rightChild.numKeys-1,
-                areLeaves ?
-                    MoreArrays.arrayCopyAndRemovePair(rightChild.nodes, 0) :
-                    MoreArrays.arrayCopyAndRemovePairAndElement(rightChild.nodes, 0, childIndex(0)));
+            Node<K,V> newRightChild = new Node<>(generation, rightChild.numKeys-1, rightChild.size - 1 - movedSize,
+                rightChild.copyAndRemove(0, 0));
 
-            if (this.generation == generation) {
-                nodes[keyIndex(index)] = newKey;
-                nodes[valueIndex(index)] = newValue;
-                nodes[childIndex(index)] = newLeftChild;
-                nodes[childIndex(index+1)] = newRightChild;
-
-                return this;
-            } else {
-                Object[] newNodes = MoreArrays.arrayCopyAndReplacePair(nodes, keyIndex(index), newKey, newValue);
-                newNodes[childIndex(index)] = newLeftChild;
-                newNodes[childIndex(index+1)] = newRightChild;
-
-                return  new Node<>(generation, numKeys, newNodes);
+            if (abbreviations != null && leftChild.abbreviations != null && rightChild.abbreviations != null) {
+                newLeftChild.abbreviations =
+                    MoreArrays.arrayCopyAndInsert(leftChild.abbreviations, leftChild.numKeys, abbreviations[index]);
+                newRightChild.abbreviations = MoreArrays.arrayCopyAndRemove(rightChild.abbreviations, 0);
             }
+
+            Node<K,V> node = editable(generation);
+            node.replaceEntryAt(index, rightChild, 0);
+            node.replaceChildAt(index, newLeftChild);
+            node.replaceChildAt(index+1, newRightChild);
+            return node;
         }
 
         /**
@@ -268,34 +567,25 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
             boolean areLeaves = leftChild.isLeaf();
 
             int leftLastIndex = leftChild.numKeys - 1;
-            Node<K,V> newLeftChild = new Node<>(generation, leftChild.numKeys-1,
-                areLeaves ?
-                    MoreArrays.arrayCopyAndRemovePair(leftChild.nodes, keyIndex(leftLastIndex)) :
-                    MoreArrays.arrayCopyAndRemovePairAndElement(leftChild.nodes, keyIndex(leftLastIndex), leftChild.childIndex(leftLastIndex+1)));
-
-            K newKey = leftChild.keyAt(leftLastIndex);
-            V newValue = leftChild.valueAt(leftLastIndex);
-
-            Node<K,V> newRightChild = new Node<>(generation, rightChild.numKeys+1,
-                areLeaves ?
-                    MoreArrays.arrayCopyAndInsert(rightChild.nodes, 0, keyAt(index), valueAt(index)) :
-                    MoreArrays.arrayCopyAndInsertPairAndElement(rightChild.nodes, 0, keyAt(index), valueAt(index),
-                        rightChild.childIndex(0), leftChild.childAt(leftLastIndex+1)));
-
-            if (this.generation == generation) {
-                nodes[keyIndex(index)] = newKey;
-                nodes[valueIndex(index)] = newValue;
-                nodes[childIndex(index)] = newLeftChild;
-                nodes[childIndex(index+1)] = newRightChild;
+            Node<K,V> movedChild = areLeaves ? null : leftChild.childAt(leftLastIndex+1);
+            int movedSize = areLeaves ? 0 : movedChild.size;
 
-                return this;
-            } else {
-                Object[] newNodes = MoreArrays.arrayCopyAndReplacePair(this.nodes, keyIndex(index), newKey, newValue);
-                newNodes[childIndex(index)] = newLeftChild;
-                newNodes[childIndex(index+1)] = newRightChild;
+            Node<K,V> newLeftChild = new Node<>(generation, leftChild.numKeys-1, leftChild.size - 1 - movedSize,
+                leftChild.copyAndRemove(leftLastIndex, leftLastIndex+1));
+
+            Node<K,V> newRightChild = new Node<>(generation, rightChild.numKeys+1, rightChild.size + 1 + movedSize,
+                rightChild.copyAndInsert(rightChild.numKeys + 1, 0, keyAt(index), valueAt(index), 0, movedChild));
 
-                return  new Node<>(generation, numKeys, newNodes);
+            if (abbreviations != null && leftChild.abbreviations != null && rightChild.abbreviations != null) {
+                newLeftChild.abbreviations = MoreArrays.arrayCopyAndRemove(leftChild.abbreviations, leftLastIndex);
+                newRightChild.abbreviations = MoreArrays.arrayCopyAndInsert(rightChild.abbreviations, 0, abbreviations[index]);
             }
+
+            Node<K,V> node = editable(generation);
+            node.replaceEntryAt(index, leftChild, leftLastIndex);
+            node.replaceChildAt(index, newLeftChild);
+            node.replaceChildAt(index+1, newRightChild);
+            return node;
         }
 
         /**
@@ -308,107 +598,26 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
                 // this only ever happens at the root of the tree
                 return emptyNode();
             } else {
-                return new Node<>(generation, numKeys-1,
-                    MoreArrays.arrayCopyAndRemovePair(nodes, keyIndex(index)));
-            }
-        }
-
-        Node<K,V> replaceWithChildValueAt(CowTreeMap<K,V> editor, int replaceIndex) {
-            Node<K,V> left = childAt(replaceIndex);
-            Node<K,V> right = childAt(replaceIndex + 1);
-
-            if (left.numKeys == MIN_KEYS && right.numKeys == MIN_KEYS) {
-                // how very unlucky. We'll have to push the key down into a merged node and recurse.
-                Node<K,V> node = mergeChildrenAt(editor, replaceIndex, replaceIndex, left, right);
-                Node<K, V> child = node.childAt(replaceIndex);
-                if (child.isLeaf()) {
-                    node.replaceChildAt(replaceIndex,
-                        child.removeFromLeafAt(editor.generation, MIN_KEYS));
-                } else {
-                    node.replaceChildAt(replaceIndex,
-                        child.replaceWithChildValueAt(editor, MIN_KEYS));
-                }
+                long[] carried = abbreviations == null ? null : MoreArrays.arrayCopyAndRemove(abbreviations, index);
+                Node<K,V> node = removeAt(generation, index, 0, size-1);
+                node.abbreviations = carried;
                 return node;
             }
-
-
-            if (right.numKeys > MIN_KEYS) {
-                return replaceWithSuccessor(editor, replaceIndex, right);
-            } else {
-                return replaceWithPredecessor(editor, replaceIndex, left);
-            }
-        }
-
-        private Node<K, V> replaceWithSuccessor(CowTreeMap<K,V> editor, int replaceIndex, Node<K, V> right) {
-            Node<K,V> me = this.editable(editor.generation);
-            Node<K,V> parent = me;
-            int nodeIndex = replaceIndex + 1;
-            Node<K,V> cur = right;
-
-            // invariant: parent is editable
-            while (!cur.isLeaf()) {
-                Node<K,V> next = cur.childAt(0);
-                if (next.numKeys == MIN_KEYS) {
-                    cur = cur.mergeChildAt(editor, 0);
-                    parent.replaceChildAt(nodeIndex, cur);
-                    next = cur.childAt(0);
-                }
-
-                parent = cur;
-                nodeIndex = 0;
-                cur = next;
-            }
-
-            me.nodes[keyIndex(replaceIndex)] = cur.keyAt(0);
-            me.nodes[valueIndex(replaceIndex)] = cur.valueAt(0);
-
-            parent.replaceChildAt(nodeIndex,
-                cur.removeFromLeafAt(editor.generation, 0));
-            return me;
         }
 
         /**
-         * <pre>
-         *      [ - - A - - ]            [ - - B - - ]
-         *           /                        /
-         *    [ - - ]             =>   [ - - ]
-         *           \                        \
-         *            [ - - B ]                [ - - ]
-         * </pre>
+         * Every node edited in place is first made editable; so this is where the cached aggregate and hash go stale.
+         * The abbreviations stay until the keys change.
          */
-        private Node<K, V> replaceWithPredecessor(CowTreeMap<K,V> editor, int replaceIndex, Node<K, V> left) {
-            Node<K,V> me = this.editable(editor.generation);
-            Node<K,V> parent = me;
-            int nodeIndex = replaceIndex;
-            Node<K,V> cur = left;
-
-            // invariant: parent is editable
-            while (!cur.isLeaf()) {
-                int nextIndex = cur.numKeys;
-                Node<K,V> next = cur.childAt(nextIndex);
-                if (next.numKeys == MIN_KEYS) {
-                    cur = cur.mergeChildAt(editor, nextIndex);
-                    parent.replaceChildAt(nodeIndex, cur);
-                    nextIndex = cur.numKeys;
-                    next = cur.childAt(nextIndex);
-                }
-
-                parent = cur;
-                nodeIndex = nextIndex;
-                cur = next;
-            }
-
-            int keyIndex = cur.numKeys - 1;
-            me.nodes[keyIndex(replaceIndex)] = cur.keyAt(keyIndex);
-            me.nodes[valueIndex(replaceIndex)] = cur.valueAt(keyIndex);
-
-            parent.replaceChildAt(nodeIndex,
-                cur.removeFromLeafAt(editor.generation, keyIndex));
-            return me;
-        }
-
         private Node<K, V> editable(long generation) {
-            return generation == this.generation ? this : new Node<>(generation, numKeys, nodes.clone());
+            if (generation == this.generation) {
+                aggregate = STALE;
+                hash = UNHASHED;
+                return this;
+            }
+            Node<K,V> copy = new Node<>(generation, numKeys, size, copyTrimmed());
+            copy.abbreviations = abbreviations;
+            return copy;
         }
 
         @SuppressWarnings("unchecked")
@@ -418,7 +627,7 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
 
         @SuppressWarnings("unchecked")
         K keyAt(int index) {
-            return (K) nodes[keyIndex(index)];
+            return (K) nodes[index];
         }
 
         @SuppressWarnings("unchecked")
@@ -427,32 +636,122 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
         }
     }
 
-    private static final Node<?,?> EMPTY_NODE = new Node<>(-1, 0, new Object[0]);
+    /** The aggregate of a node not yet refreshed since it was created or edited. */
+    private static final Object STALE = new Object();
+
+    /** The hash of a node not hashed since it was created or edited. A subtree truly hashing to it is not cached. */
+    private static final int UNHASHED = Integer.MIN_VALUE;
+
+    private static final Node<?,?> EMPTY_NODE = new Node<>(-1, 0, 0, new Object[0]);
 
     @SuppressWarnings("unchecked")
     private static <K,V> Node<K,V> emptyNode() {
         return (Node<K,V>) EMPTY_NODE;
     }
 
+    @SuppressWarnings("unchecked")
+    private static <K,V> Node<K,V>[] newNodeArray(int length) {
+        return (Node<K,V>[]) new Node<?,?>[length];
+    }
+
     private long generation;
     private final Comparator<K> comparator;
     private int size;
     private Node<K,V> root;
 
+    /** Every node but the root has at least the minimum number of keys; and none has more than the maximum. */
+    private final int minKeys;
+    private final int maxKeys;
+
+    /** Null unless this map keeps aggregates; see {@link CowAggregatingTreeMap}. */
+    private final Aggregation<? super V, Object> aggregation;
+    /** Null unless this map abbreviates its keys. */
+    private final ToLongFunction<? super K> abbreviator;
+
+    /**
+     * The rightmost path, root to leaf, as the last append left it; so that the next append can skip the search. Null
+     * when unknown. Checked before use, since other writes do not bother to clear it; but cleared wherever the root is
+     * replaced whole, or the map forked, so that it never keeps an old tree alive.
+     */
+    private Node<K,V>[] rightEdge;
+
+    /**
+     * Scratch space for the path a put edits its way down, kept for the next put to reuse. Null until the first put;
+     * emptied again as each put returns, so that it never keeps nodes alive once they leave the tree.
+     */
+    private Node<K,V>[] editPath;
+
     /**
      * @param comparator (try using {@link Comparator#naturalOrder()})
      */
     public CowTreeMap(Comparator<K> comparator) {
-        //noinspection unchecked
-        this(EMPTY_NODE.generation + 1, 0, (Node<K, V>) EMPTY_NODE, comparator);
+        this(comparator, DEFAULT_FANOUT);
+    }
+
+    /**
+     * @param comparator (try using {@link Comparator#naturalOrder()})
+     * @param fanout the most children of any node; an even number from 8 to 128
+     * @throws IllegalArgumentException if the fanout is odd or out of range
+     */
+    @Beta
+    public CowTreeMap(Comparator<K> comparator, int fanout) {
+        this(EMPTY_NODE.generation + 1, 0, emptyNode(), comparator, checkFanout(fanout), null, null);
+    }
+
+    /**
+     * A map which compares abbreviated keys before the keys themselves. An abbreviation is a {@code long} prefix of
+     * the key&mdash;say, its first few characters&mdash;which orders keys as the comparator does, but with ties. That
+     * is, for any keys {@code a} and {@code b}: if {@code comparator.compare(a, b) < 0} then
+     * {@code Long.compareUnsigned(abbreviator.applyAsLong(a), abbreviator.applyAsLong(b)) <= 0}.
+     *
+     * <p>Each node keeps the abbreviations of its keys, so most steps of a search compare two primitives; and only
+     * ties call the comparator. This pays off when the comparator is expensive, as for long strings that share no
+     * prefix, or for composite keys. See {@link #abbreviateString(String)}.</p>
+     *
+     * @param comparator (try using {@link Comparator#naturalOrder()})
+     * @param fanout the most children of any node; an even number from 8 to 128
+     * @param abbreviator the abbreviation of a key, which must agree with the comparator as above
+     * @throws IllegalArgumentException if the fanout is odd or out of range
+     */
+    @Beta
+    public CowTreeMap(Comparator<K> comparator, int fanout, ToLongFunction<? super K> abbreviator) {
+        this(EMPTY_NODE.generation + 1, 0, emptyNode(), comparator, checkFanout(fanout), null,
+            Objects.requireNonNull(abbreviator));
+    }
+
+    /**
+     * A map that keeps the aggregate of every subtree, for {@link CowAggregatingTreeMap}.
+     */
+    @SuppressWarnings("unchecked"/*the aggregates never leave the map but through the aggregation's own type*/)
+    CowTreeMap(Comparator<K> comparator, int fanout, Aggregation<? super V, ?> aggregation) {
+        this(EMPTY_NODE.generation + 1, 0, (Node<K, V>) EMPTY_NODE, comparator, checkFanout(fanout),
+            (Aggregation<? super V, Object>) Objects.requireNonNull(aggregation), null);
     }
 
-    private CowTreeMap(long generation, int size, Node<K, V> root, Comparator<K> comparator) {
+    private CowTreeMap(long generation, int size, Node<K, V> root, Comparator<K> comparator, int fanout,
+                       Aggregation<? super V, Object> aggregation, ToLongFunction<? super K> abbreviator) {
         this.size = size;
         this.root = root;
         this.comparator = comparator;
+        this.maxKeys = fanout - 1;
+        this.minKeys = fanout/2 - 1;
+        this.aggregation = aggregation;
+        this.abbreviator = abbreviator;
 
         this.generation = generation;
+        refreshNodes();
+    }
+
+    private static int checkFanout(int fanout) {
+        // an odd fanout would split a full node into one half below the minimum
+        if (fanout < MIN_FANOUT || fanout > MAX_FANOUT || fanout % 2 != 0) {
+            throw new IllegalArgumentException("fanout must be even and within [" + MIN_FANOUT + ", " + MAX_FANOUT + "]: " + fanout);
+        }
+        return fanout;
+    }
+
+    private int fanout() {
+        return maxKeys + 1;
     }
 
     @Override
@@ -460,113 +759,241 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
         return size;
     }
 
-    private static class NodeStack<K,V> {
-        private final NodeStack<K,V> parent;
-        private final Node<K,V> node;
-        /** points at the next key to return; or just before */
-        private int index;
+    /**
+     * The path from the root to the current key. The frames live in arrays as deep as the tree, so stepping through
+     * the tree allocates nothing.
+     */
+    private static final class NodeStack<K,V> {
+        private Node<K,V> root;
+        private Node<K,V>[] nodes;
+        /** For each frame: points at the next key to return; or just before */
+        private int[] indexes;
+        /** The current frame; or -1 when the stack is exhausted. */
+        private int top = -1;
+
+        NodeStack(Node<K,V> root) {
+            reset(root);
+        }
 
-        private NodeStack(NodeStack<K, V> parent, Node<K, V> node, int index) {
-            this.parent = parent;
-            this.node = node;
-            this.index = index;
+        /**
+         * Start over from the root, which may have changed since; the stack is left exhausted.
+         */
+        void reset(Node<K,V> root) {
+            this.root = root;
+            this.top = -1;
+
+            int depth = 1;
+            for (Node<K,V> cur = root; !cur.isLeaf(); cur = cur.childAt(0)) {
+                depth++;
+            }
+            if (nodes == null || nodes.length < depth) {
+                nodes = newNodeArray(depth);
+                indexes = new int[depth];
+            }
+        }
+
+        boolean hasKey() {
+            return top >= 0;
+        }
+
+        void exhaust() {
+            top = -1;
+        }
+
+        private void push(Node<K,V> node, int index) {
+            top++;
+            nodes[top] = node;
+            indexes[top] = index;
         }
 
-        static <K,V> NodeStack<K,V> before(K upperBound, Node<K,V> root, Comparator<K> cmp) {
+        boolean first() {
+            top = -1;
             if (root.numKeys == 0)
-                return null;
+                return false;
+
+            push(root, 0);
+            firstChild();
+            return true;
+        }
+
+        /**
+         * Start from the first key at or under the root's child&mdash;or key, in a leaf&mdash;at the index.
+         */
+        void firstFrom(int index) {
+            top = -1;
+            push(root, index);
+            if (!root.isLeaf()) {
+                push(root.childAt(index), 0);
+                firstChild();
+            }
+        }
+
+        boolean last() {
+            top = -1;
+            if (root.numKeys == 0)
+                return false;
+
+            push(root, root.numKeys - 1);
+            lastChild();
+            return true;
+        }
+
+        boolean before(K upperBound, boolean inclusive, Comparator<K> cmp) {
+            top = -1;
+            if (root.numKeys == 0)
+                return false;
 
             Node<K,V> node = root;
-            NodeStack<K,V> cur = null;
             for (;;) {
                 int index = node.searchKeys(upperBound, cmp);
                 int insertion = -index - 1;
                 if (index >= 0) {
-                    return new NodeStack<>(cur, node, index).previous();
+                    push(node, index);
+                    return inclusive || previous();
                 } else if (node.isLeaf()) {
-                    return new NodeStack<>(cur, node, insertion).previous();
+                    push(node, insertion);
+                    return previous();
                 } else {
-                    cur = new NodeStack<>(cur, node, insertion-1);
+                    push(node, insertion-1);
                     node = node.childAt(insertion);
                 }
             }
         }
 
-        static <K,V> NodeStack<K,V> after(K lowerBound, Node<K,V> root, Comparator<K> cmp) {
+        boolean after(K lowerBound, boolean inclusive, Comparator<K> cmp) {
+            top = -1;
             if (root.numKeys == 0)
-                return null;
+                return false;
 
             Node<K,V> node = root;
-            NodeStack<K,V> cur = null;
             for (;;) {
                 int index = node.searchKeys(lowerBound, cmp);
                 int insertion = -index - 1;
                 if (index >= 0) {
-                    return new NodeStack<>(cur, node, index).next();
+                    push(node, index);
+                    return inclusive || next();
                 } else if (node.isLeaf()) {
-                    return new NodeStack<>(cur, node, insertion-1).next();
+                    push(node, insertion-1);
+                    return next();
                 } else {
-                    cur = new NodeStack<>(cur, node, insertion);
+                    push(node, insertion);
                     node = node.childAt(insertion);
                 }
             }
         }
 
-        NodeStack<K,V> next() {
-            index++;
-            NodeStack<K,V> cur = this;
+        boolean next() {
+            Node<K,V> node = nodes[top];
+            int index = ++indexes[top];
             if (index == ( node.isLeaf() ? node.numKeys : node.numKeys + 1 )) {
                 do {
-                    cur = cur.parent;
-                } while (cur != null && cur.index == cur.node.numKeys);
-                return cur;
+                    top--;
+                } while (top >= 0 && indexes[top] == nodes[top].numKeys);
+                return top >= 0;
             }
 
-            if (cur.node.isLeaf()) {
-                return cur;
+            if (!node.isLeaf()) {
+                push(node.childAt(index), 0);
+                firstChild();
             }
-
-            return new NodeStack<>(this, cur.node.childAt(cur.index), 0).firstChild();
+            return true;
         }
 
-        private NodeStack<K, V> firstChild() {
-            NodeStack<K,V> cur = this;
-            while (!cur.node.isLeaf()) {
-                cur = new NodeStack<>(cur, cur.node.childAt(0), 0);
+        private void firstChild() {
+            while (!nodes[top].isLeaf()) {
+                push(nodes[top].childAt(0), 0);
             }
-            return cur;
         }
 
-        NodeStack<K,V> previous() {
-            index--;
-            if (index == ( node.isLeaf() ? -1 : -2 )) {
-                NodeStack<K,V> cur = this;
-                do {
-                    cur = cur.parent;
-                } while (cur != null && cur.index < 0);
-                return cur;
-            } else {
-                if (node.isLeaf()) {
-                    return this;
+        /**
+         * Move forward to the least key at or above the target. The stack climbs only as high as it must to get past
+         * the keys below the target; so a seek over {@code d} keys takes {@code O(log d)} comparisons rather than a
+         * search from the root. Precondition: the stack has a key, and it is below the target.
+         */
+        boolean seek(K target, Comparator<K> cmp) {
+            // climb while the target is beyond the top node's subtree and the key after it
+            for (;;) {
+                int parent = top - 1;
+                while (parent >= 0 && indexes[parent] == nodes[parent].numKeys) {
+                    parent--;
                 }
-
-                Node<K, V> child = node.childAt(index+1);
-                return new NodeStack<>(this, child, child.numKeys - 1).lastChild();
+                if (parent < 0 || cmp.compare(nodes[parent].keyAt(indexes[parent]), target) >= 0) {
+                    break;
+                }
+                top = parent;
             }
-        }
 
-        private NodeStack<K, V> lastChild() {
-            NodeStack<K, V> cur = this;
-            while (!cur.node.isLeaf()) {
-                Node<K,V> child = cur.node.childAt(cur.node.numKeys);
-                cur = new NodeStack<>(cur, child, child.numKeys - 1);
+            // the least key in the rest of the node at or above the target; or past the keys
+            Node<K,V> node = nodes[top];
+            int low = indexes[top] + 1;
+            int high = node.numKeys - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int dir = cmp.compare(node.keyAt(mid), target);
+                if (dir < 0) {
+                    low = mid + 1;
+                } else if (dir > 0) {
+                    high = mid - 1;
+                } else {
+                    indexes[top] = mid;
+                    return true;
+                }
             }
-            return cur;
-        }
 
-        K getKey() { return node.keyAt(index); }
-        V getValue() { return node.valueAt(index); }
-    }
+            if (node.isLeaf()) {
+                indexes[top] = low - 1;
+                return next();
+            }
+
+            // the target is in the child before that key, if anywhere; as in after(), but from here
+            indexes[top] = low;
+            node = node.childAt(low);
+            for (;;) {
+                int index = node.searchKeys(target, cmp);
+                int insertion = -index - 1;
+                if (index >= 0) {
+                    push(node, index);
+                    return true;
+                } else if (node.isLeaf()) {
+                    push(node, insertion-1);
+                    return next();
+                } else {
+                    push(node, insertion);
+                    node = node.childAt(insertion);
+                }
+            }
+        }
+
+        boolean previous() {
+            Node<K,V> node = nodes[top];
+            int index = --indexes[top];
+            if (index == ( node.isLeaf() ? -1 : -2 )) {
+                do {
+                    top--;
+                } while (top >= 0 && indexes[top] < 0);
+                return top >= 0;
+            }
+
+            if (!node.isLeaf()) {
+                Node<K, V> child = node.childAt(index+1);
+                push(child, child.numKeys - 1);
+                lastChild();
+            }
+            return true;
+        }
+
+        private void lastChild() {
+            while (!nodes[top].isLeaf()) {
+                Node<K,V> child = nodes[top].childAt(nodes[top].numKeys);
+                push(child, child.numKeys - 1);
+            }
+        }
+
+        Node<K,V> node() { return nodes[top]; }
+        int index() { return indexes[top]; }
+        K getKey() { return nodes[top].keyAt(indexes[top]); }
+        V getValue() { return nodes[top].valueAt(indexes[top]); }
+    }
 
     private class SettableEntry implements Entry<K,V> {
         private K key;
@@ -589,74 +1016,201 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
 
         @Override
         public V setValue(V value) {
-            value = CowTreeMap.this.put(key, value);
-            return value;
+            this.value = value;
+            return replaceValue(key, value);
         }
 
         @Override
         public String toString() {
             return "<" + key + "=" + value + ">";
         }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry<?,?>)) return false;
+
+            Entry<?,?> that = (Entry<?, ?>) obj;
+            return Objects.equals(key, that.getKey()) && Objects.equals(value, that.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
     }
 
     private abstract class EntryIter implements Iterator<Entry<K,V>> {
-        NodeStack<K,V> stack;
-        Entry<K,V> lastReturned;
+        final NodeStack<K,V> stack = new NodeStack<>(root);
+        private K lastKey;
+        private boolean hasLastKey;
+
+        /** When fenced, the iteration stops before going past the fence. */
+        private final boolean isFenced;
+        private final K fence;
+        private final boolean fenceInclusive;
+
+        EntryIter(boolean isFenced, K fence, boolean fenceInclusive) {
+            this.isFenced = isFenced;
+            this.fence = fence;
+            this.fenceInclusive = fenceInclusive;
+        }
+
+        /** 1 when ascending; -1 when descending. */
+        abstract int direction();
+        abstract void advance();
+        abstract void seekPast(K key);
+
+        void fence() {
+            if (stack.hasKey() && isFenced) {
+                int dir = direction() * comparator.compare(stack.getKey(), fence);
+                if (dir > 0 || (dir == 0 && !fenceInclusive)) {
+                    stack.exhaust();
+                }
+            }
+        }
 
         @Override
         public boolean hasNext() {
-            return stack != null;
+            return stack.hasKey();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!stack.hasKey())
+                throw new NoSuchElementException("Forget to call hasNext()?");
+
+            Entry<K,V> entry = new SettableEntry(stack.getKey(), stack.getValue());
+            nextKey();
+            return entry;
+        }
+
+        /**
+         * As {@link #next()}, but without making an entry.
+         */
+        K nextKey() {
+            if (!stack.hasKey())
+                throw new NoSuchElementException("Forget to call hasNext()?");
+
+            lastKey = stack.getKey();
+            hasLastKey = true;
+            advance();
+            fence();
+            return lastKey;
         }
 
         @Override
         public void remove() {
-            CowTreeMap.this.remove(lastReturned.getKey(), lastReturned.getValue());
+            if (!hasLastKey)
+                throw new IllegalStateException("Forget to call next()?");
+
+            K key = lastKey;
+            CowTreeMap.this.remove(key);
+            lastKey = null;
+            hasLastKey = false;
+
+            // The removal may have rearranged the nodes on our stack; find our place again.
+            if (stack.hasKey()) {
+                stack.reset(root);
+                seekPast(key);
+            }
         }
     }
 
     private class AscendingEntryIter extends EntryIter {
 
-        AscendingEntryIter(Node<K,V> root) {
-            if (root.numKeys == 0)
-                return;
-            stack = new NodeStack<>(null, root, 0).firstChild();
+        AscendingEntryIter() {
+            this(true, null, false, true, null, false);
+        }
+
+        AscendingEntryIter(K lowerBoundExclusive) {
+            this(false, lowerBoundExclusive, false, true, null, false);
+        }
+
+        AscendingEntryIter(boolean fromStart, K lo, boolean loInclusive, boolean toEnd, K hi, boolean hiInclusive) {
+            super(!toEnd, hi, hiInclusive);
+            if (fromStart) {
+                stack.first();
+            } else {
+                stack.after(lo, loInclusive, comparator);
+            }
+            fence();
         }
 
-        AscendingEntryIter(Node<K,V> root, K lowerBoundExclusive) {
-            stack = NodeStack.after(lowerBoundExclusive, root, comparator);
+        @Override
+        int direction() {
+            return 1;
         }
 
         @Override
-        public Entry<K, V> next() {
-            if (stack == null)
-                throw new NoSuchElementException("Forget to call hasNext()?");
+        void advance() {
+            stack.next();
+        }
 
-            lastReturned = new SettableEntry(stack.getKey(), stack.getValue());
-            stack = stack.next();
-            return lastReturned;
+        @Override
+        void seekPast(K key) {
+            stack.after(key, false, comparator);
         }
     }
 
     private class DescendingEntryIter extends EntryIter {
 
-        DescendingEntryIter(Node<K,V> root) {
-            if (root.numKeys == 0)
-                return;
-            stack = new NodeStack<>(null, root, root.numKeys - 1).lastChild();
+        DescendingEntryIter() {
+            this(true, null, false, true, null, false);
+        }
+
+        DescendingEntryIter(K upperBoundExclusive) {
+            this(true, null, false, false, upperBoundExclusive, false);
         }
 
-        DescendingEntryIter(Node<K,V> root, K upperBoundExclusive) {
-            stack = NodeStack.before(upperBoundExclusive, root, comparator);
+        DescendingEntryIter(boolean fromStart, K lo, boolean loInclusive, boolean toEnd, K hi, boolean hiInclusive) {
+            super(!fromStart, lo, loInclusive);
+            if (toEnd) {
+                stack.last();
+            } else {
+                stack.before(hi, hiInclusive, comparator);
+            }
+            fence();
         }
 
         @Override
-        public Entry<K, V> next() {
-            if (stack == null)
-                throw new NoSuchElementException("Forget to call hasNext()?");
+        int direction() {
+            return -1;
+        }
+
+        @Override
+        void advance() {
+            stack.previous();
+        }
+
+        @Override
+        void seekPast(K key) {
+            stack.before(key, false, comparator);
+        }
+    }
 
-            lastReturned = new SettableEntry(stack.getKey(), stack.getValue());
-            stack = stack.previous();
-            return lastReturned;
+    /**
+     * The keys of an entry iterator, without the entries.
+     */
+    private final class KeyIter implements Iterator<K> {
+        private final EntryIter entries;
+
+        KeyIter(EntryIter entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entries.hasNext();
+        }
+
+        @Override
+        public K next() {
+            return entries.nextKey();
+        }
+
+        @Override
+        public void remove() {
+            entries.remove();
         }
     }
 
@@ -666,13 +1220,18 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
 
             @Override @Nonnull
             public Iterator<Entry<K, V>> iterator() {
-                return new AscendingEntryIter(root);
+                return new AscendingEntryIter();
             }
 
             @Override
             public int size() {
                 return size;
             }
+
+            @Override
+            public Spliterator<Entry<K, V>> spliterator() {
+                return new EntrySpliterator(root);
+            }
         }
         return new EntrySet();
     }
@@ -686,13 +1245,14 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
     public V getOrDefault(Object oKey, V defaultValue) {
         @SuppressWarnings("unchecked")
         K key = (K) oKey;
+        long abbreviatedKey = abbreviate(key);
         Node<K,V> cur = root;
         while (true) {
-            int index = cur.searchKeys(key, comparator);
+            int index = cur.searchKeys(key, abbreviatedKey, comparator);
             if (index >= 0) {
                 return cur.valueAt(index);
             } else if (cur.isLeaf()) {
-                return null;
+                return defaultValue;
             } else {
                 cur = cur.childAt(-index - 1);
             }
@@ -704,9 +1264,10 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
     public boolean containsKey(Object oKey) {
         @SuppressWarnings("unchecked")
         K key = (K) oKey;
+        long abbreviatedKey = abbreviate(key);
         Node<K,V> cur = root;
         while (true) {
-            int index = cur.searchKeys(key, comparator);
+            int index = cur.searchKeys(key, abbreviatedKey, comparator);
             if (index >= 0) {
                 return true;
             } else if (cur.isLeaf()) {
@@ -719,168 +1280,2813 @@ public final class CowTreeMap<K,V> extends AbstractMap<K,V> implements CowOrdere
 
     @Override
     public Iterable<Entry<K, V>> descendingEntries() {
-        return () -> new DescendingEntryIter(root);
+        return () -> new DescendingEntryIter();
     }
 
     @Override
     public Iterable<Entry<K, V>> ascendingEntries() {
-        return () -> new AscendingEntryIter(root);
+        return () -> new AscendingEntryIter();
     }
 
     @Override
     public Iterable<Entry<K, V>> descendingEntriesBefore(K upperBoundExclusive) {
-        return () -> new DescendingEntryIter(root, upperBoundExclusive);
+        return () -> new DescendingEntryIter(upperBoundExclusive);
     }
 
     @Override
     public Iterable<Entry<K, V>> ascendingEntriesAfter(K lowerBoundExclusive) {
-        return () -> new AscendingEntryIter(root, lowerBoundExclusive);
+        return () -> new AscendingEntryIter(lowerBoundExclusive);
     }
 
-    //region mutations
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Walks the nodes directly, without an iterator or entries. The action must not modify this map.</p>
+     */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        forEach(root, action);
+    }
 
-    private static final Object ALWAYS_REMOVE = new Object();
-    private static final Object NOT_REMOVED = new Object();
+    private static <K,V> void forEach(Node<K,V> node, BiConsumer<? super K, ? super V> action) {
+        if (node.isLeaf()) {
+            for (int i = 0; i < node.numKeys; i++) {
+                action.accept(node.keyAt(i), node.valueAt(i));
+            }
+        } else {
+            for (int i = 0; i < node.numKeys; i++) {
+                forEach(node.childAt(i), action);
+                action.accept(node.keyAt(i), node.valueAt(i));
+            }
+            forEach(node.childAt(node.numKeys), action);
+        }
+    }
 
-    @Override
-    public V put(K key, V value) {
-        return put(key, value, /*replace=*/true);
+    /**
+     * Perform the action for each key, in ascending order. Like {@link #forEach(BiConsumer)}, the action must not
+     * modify this map.
+     */
+    @Beta
+    public void forEachKey(Consumer<? super K> action) {
+        Objects.requireNonNull(action);
+        forEachKey(root, action);
     }
 
-    @Override
-    public V putIfAbsent(K key, V value) {
-        return put(key, value, /*replace=*/false);
+    private static <K> void forEachKey(Node<K,?> node, Consumer<? super K> action) {
+        if (node.isLeaf()) {
+            for (int i = 0; i < node.numKeys; i++) {
+                action.accept(node.keyAt(i));
+            }
+        } else {
+            for (int i = 0; i < node.numKeys; i++) {
+                forEachKey(node.childAt(i), action);
+                action.accept(node.keyAt(i));
+            }
+            forEachKey(node.childAt(node.numKeys), action);
+        }
     }
 
-    @SuppressWarnings("OverlyLongMethod"/*top down b-tree*/)
-    private V put(K key, V value, boolean replaceCurrentValue) {
-        if (root.numKeys == MAX_KEYS) {
-            root = new Node<K,V>(generation, 0, new Object[]{root})
-                .splitChildAt(generation, 0, root);
+    //region spliterators
+
+    Spliterator<K> keySpliterator() {
+        return new KeySpliterator(root);
+    }
+
+    /**
+     * Splits along child boundaries, so each half is whole subtrees and the keys between them; which the subtree sizes
+     * count exactly. Like the iterators, it reads the nodes as they are when it is created, so the map must not be
+     * modified while it is in use; traverse a fork instead.
+     */
+    private abstract class TreeSpliterator<T> implements Spliterator<T> {
+        /** The node and index of a lone key which comes before the rest; or null for none. */
+        private Node<K,V> leadNode;
+        private int leadIndex;
+
+        /**
+         * The children in {@code [lo, hi)} and the keys between them; or, in a leaf, the keys in {@code [lo, hi)}.
+         */
+        private Node<K,V> node;
+        private int lo;
+        private int hi;
+
+        private int remaining;
+        /** Set once traversal starts; then there's no more splitting. */
+        private NodeStack<K,V> stack;
+
+        TreeSpliterator(Node<K,V> root) {
+            this(null, 0, root, 0, root.isLeaf() ? root.numKeys : root.numKeys + 1);
         }
 
-        Node<K, V> fauxRoot = new Node<>(generation, 0, new Object[1]);
-        fauxRoot.replaceChildAt(0, root);
+        TreeSpliterator(Node<K,V> leadNode, int leadIndex, Node<K,V> node, int lo, int hi) {
+            this.leadNode = leadNode;
+            this.leadIndex = leadIndex;
+            this.node = node;
+            this.lo = lo;
+            this.hi = hi;
+            this.remaining = (leadNode == null ? 0 : 1) + countRange(node, lo, hi);
+        }
 
-        Node<K,V> parent = fauxRoot;
-        int nodeIndex = 0;
-        Node<K,V> node = root;
+        abstract T element(Node<K,V> node, int index);
 
-        // loop invariant: parent is editable
-        for (;;) {
-            int index = node.searchKeys(key, comparator);
+        abstract TreeSpliterator<T> newSpliterator(Node<K,V> leadNode, int leadIndex, Node<K,V> node, int lo, int hi);
 
-            if (index >= 0) {
-                V val = node.valueAt(index);
-                if (replaceCurrentValue) {
-                    parent.replaceChildAt(nodeIndex,
-                            node.replaceValueAt(generation, index, value));
-                }
-                root = fauxRoot.childAt(0);
-                return val;
+        @Override
+        public Spliterator<T> trySplit() {
+            if (stack != null) {
+                return null;
             }
 
-            // The insertion point; N.B. may point _past_ the keys.
-            index = -index - 1;
+            // a single child can't be split, but its own children can
+            while (!node.isLeaf() && hi - lo == 1) {
+                node = node.childAt(lo);
+                lo = 0;
+                hi = node.isLeaf() ? node.numKeys : node.numKeys + 1;
+            }
+            if (hi - lo < 2) {
+                return null;
+            }
 
+            int mid = (lo + hi) >>> 1;
+            TreeSpliterator<T> prefix = newSpliterator(leadNode, leadIndex, node, lo, mid);
             if (node.isLeaf()) {
-                parent.replaceChildAt(nodeIndex,
-                        node.insertIntoLeafAt(generation, index, key, value));
-                size++;
-                root = fauxRoot.childAt(0);
-                return null;
+                leadNode = null;
+            } else {
+                // the key between the halves leads this half
+                leadNode = node;
+                leadIndex = mid - 1;
             }
+            lo = mid;
+            remaining -= prefix.remaining;
+            return prefix;
+        }
 
-            Node<K, V> child = node.childAt(index);
-            if (child.numKeys == MAX_KEYS) {
-                node = node.splitChildAt(generation, index, child);
-                parent.replaceChildAt(nodeIndex, node);
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            Objects.requireNonNull(action);
+            if (remaining == 0) {
+                return false;
+            }
 
-                // the key location could have changed!
-                int dir = comparator.compare(key, node.keyAt(index));
-                if (dir == 0) {
-                    V val = node.valueAt(index);
-                    if (replaceCurrentValue) {
-                        parent.replaceChildAt(nodeIndex,
-                                node.replaceValueAt(generation, index, value));
+            remaining--;
+            if (leadNode != null) {
+                action.accept(element(leadNode, leadIndex));
+                leadNode = null;
+                return true;
+            }
+
+            if (stack == null) {
+                stack = new NodeStack<>(node);
+                stack.firstFrom(lo);
+            } else {
+                stack.next();
+            }
+            action.accept(element(stack.node(), stack.index()));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            Objects.requireNonNull(action);
+            if (stack != null) {
+                while (tryAdvance(action)) {
+                    // keep going
+                }
+                return;
+            }
+
+            if (leadNode != null) {
+                action.accept(element(leadNode, leadIndex));
+            }
+            if (node.isLeaf()) {
+                for (int i = lo; i < hi; i++) {
+                    action.accept(element(node, i));
+                }
+            } else {
+                for (int i = lo; i < hi; i++) {
+                    walk(node.childAt(i), action);
+                    if (i < hi - 1) {
+                        action.accept(element(node, i));
                     }
-                    root = fauxRoot.childAt(0);
-                    return val;
-                } else if (dir > 0) {
-                    index++;
                 }
-                child = node.childAt(index);
             }
+            leadNode = null;
+            remaining = 0;
+        }
 
-            Node<K, V> nextParent = node.editable(generation);
-            if (node.generation != generation) {
-                parent.replaceChildAt(nodeIndex, nextParent);
+        private void walk(Node<K,V> node, Consumer<? super T> action) {
+            if (node.isLeaf()) {
+                for (int i = 0; i < node.numKeys; i++) {
+                    action.accept(element(node, i));
+                }
+            } else {
+                for (int i = 0; i < node.numKeys; i++) {
+                    walk(node.childAt(i), action);
+                    action.accept(element(node, i));
+                }
+                walk(node.childAt(node.numKeys), action);
             }
-            parent = nextParent;
-            nodeIndex = index;
-            node = child;
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | DISTINCT | SIZED | SUBSIZED;
         }
     }
 
-    @Override
-    public V remove(Object key) {
-        V val = doRemove(key, ALWAYS_REMOVE);
-        return  val == NOT_REMOVED ? null : val;
+    private static int countRange(Node<?,?> node, int lo, int hi) {
+        return node.isLeaf() ? hi - lo : node.sizeOfChildren(lo, hi) + (hi - lo - 1);
     }
 
-    @Override
-    public boolean remove(Object key, Object value) {
-        return doRemove(key, value) != NOT_REMOVED;
+    private final class KeySpliterator extends TreeSpliterator<K> {
+        KeySpliterator(Node<K,V> root) {
+            super(root);
+        }
+
+        KeySpliterator(Node<K,V> leadNode, int leadIndex, Node<K,V> node, int lo, int hi) {
+            super(leadNode, leadIndex, node, lo, hi);
+        }
+
+        @Override
+        K element(Node<K,V> node, int index) {
+            return node.keyAt(index);
+        }
+
+        @Override
+        TreeSpliterator<K> newSpliterator(Node<K,V> leadNode, int leadIndex, Node<K,V> node, int lo, int hi) {
+            return new KeySpliterator(leadNode, leadIndex, node, lo, hi);
+        }
+
+        @Override
+        public Comparator<? super K> getComparator() {
+            return comparator;
+        }
     }
 
-    private V doRemove(Object oKey, Object expectedValue) {
-        @SuppressWarnings("unchecked")
-        K key = (K) oKey;
+    private final class EntrySpliterator extends TreeSpliterator<Entry<K,V>> {
+        EntrySpliterator(Node<K,V> root) {
+            super(root);
+        }
 
-        Node<K,V> fauxRoot = new Node<>(generation, 0, new Object[1]);
-        Node<K,V> parent = fauxRoot;
-        fauxRoot.replaceChildAt(0, root);
-        int nodeIndex = 0;
-        Node<K,V> node = root;
+        EntrySpliterator(Node<K,V> leadNode, int leadIndex, Node<K,V> node, int lo, int hi) {
+            super(leadNode, leadIndex, node, lo, hi);
+        }
 
-        @SuppressWarnings("unchecked")
-        V removed = (V) NOT_REMOVED;
-        for (;;) {
-            int index = node.searchKeys(key, comparator);
-            if (index >= 0) {
-                V valueAtIndex = node.valueAt(index);
-                if (expectedValue == ALWAYS_REMOVE || Objects.equals(expectedValue, removed)) {
-                    removed =  valueAtIndex;
-                    parent.replaceChildAt(nodeIndex,
-                        node.isLeaf() ?
-                            node.removeFromLeafAt(generation, index) :
-                            node.replaceWithChildValueAt(this, index));
-                    size--;
-                }
-                break;
-            } else if (node.isLeaf()) {
-                break;
-            } else {
-                index = -index - 1;
-                Node<K,V> child = node.childAt(index);
-                if (child.numKeys == MIN_KEYS) {
-                    node = node.mergeChildAt(this, index);
-                    parent.replaceChildAt(nodeIndex, node);
-                } else {
-                    parent = node;
-                    nodeIndex = index;
-                    node = child;
-                }
-            }
+        @Override
+        Entry<K,V> element(Node<K,V> node, int index) {
+            return new SettableEntry(node.keyAt(index), node.valueAt(index));
         }
 
-        root = fauxRoot.childAt(0).squash();
-        return removed;
+        @Override
+        TreeSpliterator<Entry<K,V>> newSpliterator(Node<K,V> leadNode, int leadIndex, Node<K,V> node, int lo, int hi) {
+            return new EntrySpliterator(leadNode, leadIndex, node, lo, hi);
+        }
+
+        @Override
+        public Comparator<? super Entry<K,V>> getComparator() {
+            return Entry.comparingByKey(comparator);
+        }
     }
 
+    //endregion
+
+    //region navigation
+
     @Override
-    public CowTreeMap<K, V> fork() {
-        return new CowTreeMap<>(++generation, size, root, comparator);
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public Entry<K, V> lowerEntry(K key) {
+        return findFloor(key, false);
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return keyOrNull(findFloor(key, false));
+    }
+
+    @Override
+    public Entry<K, V> floorEntry(K key) {
+        return findFloor(key, true);
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return keyOrNull(findFloor(key, true));
+    }
+
+    @Override
+    public Entry<K, V> ceilingEntry(K key) {
+        return findCeiling(key, true);
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return keyOrNull(findCeiling(key, true));
+    }
+
+    @Override
+    public Entry<K, V> higherEntry(K key) {
+        return findCeiling(key, false);
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return keyOrNull(findCeiling(key, false));
+    }
+
+    @Override
+    public Entry<K, V> firstEntry() {
+        return findFirst();
+    }
+
+    @Override
+    public Entry<K, V> lastEntry() {
+        return findLast();
+    }
+
+    @Override
+    public Entry<K, V> pollFirstEntry() {
+        return removeEntry(findFirst());
+    }
+
+    @Override
+    public Entry<K, V> pollLastEntry() {
+        return removeEntry(findLast());
+    }
+
+    @Override
+    public K firstKey() {
+        return key(findFirst());
+    }
+
+    @Override
+    public K lastKey() {
+        return key(findLast());
+    }
+
+    @Override @Nonnull
+    public Set<K> keySet() {
+        return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        return new NavigableKeySet<>(this,
+            () -> new KeyIter(new AscendingEntryIter()),
+            () -> new KeyIter(new DescendingEntryIter()));
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    @Override
+    public CowNavigableMap<K, V> descendingMap() {
+        return new DescendingCowMap<>(this);
+    }
+
+    @Override
+    public CowNavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive);
+    }
+
+    @Override
+    public CowNavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        return new SubMap(true, null, false, false, toKey, inclusive);
+    }
+
+    @Override
+    public CowNavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        return new SubMap(false, fromKey, inclusive, true, null, false);
+    }
+
+    /**
+     * The least entry greater than&mdash;or equal to, when inclusive&mdash;the key; or null if there is none.
+     */
+    private Entry<K,V> findCeiling(K key, boolean inclusive) {
+        Node<K,V> found = null;
+        int foundIndex = 0;
+
+        long abbreviatedKey = abbreviate(key);
+        Node<K,V> cur = root;
+        for (;;) {
+            int index = cur.searchKeys(key, abbreviatedKey, comparator);
+            if (index >= 0 && inclusive) {
+                return exportEntry(cur, index);
+            }
+
+            // the first key in this node above the key
+            int above = index >= 0 ? index + 1 : -index - 1;
+            if (above < cur.numKeys) {
+                found = cur;
+                foundIndex = above;
+            }
+
+            if (cur.isLeaf()) {
+                return found == null ? null : exportEntry(found, foundIndex);
+            }
+            cur = cur.childAt(above);
+        }
+    }
+
+    /**
+     * The greatest entry less than&mdash;or equal to, when inclusive&mdash;the key; or null if there is none.
+     */
+    private Entry<K,V> findFloor(K key, boolean inclusive) {
+        Node<K,V> found = null;
+        int foundIndex = 0;
+
+        long abbreviatedKey = abbreviate(key);
+        Node<K,V> cur = root;
+        for (;;) {
+            int index = cur.searchKeys(key, abbreviatedKey, comparator);
+            if (index >= 0 && inclusive) {
+                return exportEntry(cur, index);
+            }
+
+            // the last key in this node below the key
+            int below = (index >= 0 ? index : -index - 1) - 1;
+            if (below >= 0) {
+                found = cur;
+                foundIndex = below;
+            }
+
+            if (cur.isLeaf()) {
+                return found == null ? null : exportEntry(found, foundIndex);
+            }
+            cur = cur.childAt(below + 1);
+        }
+    }
+
+    private Entry<K,V> findFirst() {
+        if (size == 0) {
+            return null;
+        }
+
+        Node<K,V> cur = root;
+        while (!cur.isLeaf()) {
+            cur = cur.childAt(0);
+        }
+        return exportEntry(cur, 0);
+    }
+
+    private Entry<K,V> findLast() {
+        if (size == 0) {
+            return null;
+        }
+
+        Node<K,V> cur = root;
+        while (!cur.isLeaf()) {
+            cur = cur.childAt(cur.numKeys);
+        }
+        return exportEntry(cur, cur.numKeys - 1);
+    }
+
+    private Entry<K,V> removeEntry(Entry<K,V> entry) {
+        if (entry != null) {
+            remove(entry.getKey());
+        }
+        return entry;
+    }
+
+    /**
+     * Entries handed out by the navigation methods are snapshots; as in {@link java.util.TreeMap}.
+     */
+    private static <K,V> Entry<K,V> exportEntry(Node<K,V> node, int index) {
+        return new SimpleImmutableEntry<>(node.keyAt(index), node.valueAt(index));
+    }
+
+    private static <K> K keyOrNull(Entry<K,?> entry) {
+        return entry == null ? null : entry.getKey();
+    }
+
+    private static <K> K key(Entry<K,?> entry) {
+        if (entry == null) {
+            throw new NoSuchElementException();
+        }
+        return entry.getKey();
+    }
+
+    /**
+     * A live view of the keys within a range. A view forks into a map of just the keys in the range.
+     */
+    private final class SubMap extends AbstractMap<K,V> implements CowNavigableMap<K,V> {
+        private final boolean fromStart;
+        private final K lo;
+        private final boolean loInclusive;
+
+        private final boolean toEnd;
+        private final K hi;
+        private final boolean hiInclusive;
+
+        SubMap(boolean fromStart, K lo, boolean loInclusive, boolean toEnd, K hi, boolean hiInclusive) {
+            if (!fromStart && !toEnd && comparator.compare(lo, hi) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+        }
+
+        private boolean tooLow(K key) {
+            if (fromStart) {
+                return false;
+            }
+            int dir = comparator.compare(key, lo);
+            return dir < 0 || (dir == 0 && !loInclusive);
+        }
+
+        private boolean tooHigh(K key) {
+            if (toEnd) {
+                return false;
+            }
+            int dir = comparator.compare(key, hi);
+            return dir > 0 || (dir == 0 && !hiInclusive);
+        }
+
+        private boolean inRange(K key) {
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        /**
+         * Whether the key is a valid bound for a view within this one.
+         */
+        private boolean inRange(K key, boolean inclusive) {
+            if (inclusive) {
+                return inRange(key);
+            }
+            return (fromStart || comparator.compare(key, lo) >= 0) && (toEnd || comparator.compare(key, hi) <= 0);
+        }
+
+        private Entry<K,V> lowest() {
+            Entry<K,V> entry = fromStart ? findFirst() : findCeiling(lo, loInclusive);
+            return entry == null || tooHigh(entry.getKey()) ? null : entry;
+        }
+
+        private Entry<K,V> highest() {
+            Entry<K,V> entry = toEnd ? findLast() : findFloor(hi, hiInclusive);
+            return entry == null || tooLow(entry.getKey()) ? null : entry;
+        }
+
+        private Entry<K,V> ceiling(K key, boolean inclusive) {
+            if (tooLow(key)) {
+                return lowest();
+            }
+            Entry<K,V> entry = findCeiling(key, inclusive);
+            return entry == null || tooHigh(entry.getKey()) ? null : entry;
+        }
+
+        private Entry<K,V> floor(K key, boolean inclusive) {
+            if (tooHigh(key)) {
+                return highest();
+            }
+            Entry<K,V> entry = findFloor(key, inclusive);
+            return entry == null || tooLow(entry.getKey()) ? null : entry;
+        }
+
+        @Override
+        public CowNavigableMap<K, V> fork() {
+            return CowTreeMap.this.fork().extractRange(fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return comparator;
+        }
+
+        @Override
+        public int size() {
+            int below = fromStart ? 0 : rank(lo, !loInclusive);
+            int through = toEnd ? CowTreeMap.this.size : rank(hi, hiInclusive);
+            return Math.max(0, through - below);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return lowest() == null;
+        }
+
+        @Override
+        public boolean containsKey(Object oKey) {
+            @SuppressWarnings("unchecked")
+            K key = (K) oKey;
+            return inRange(key) && CowTreeMap.this.containsKey(key);
+        }
+
+        @Override
+        public V get(Object oKey) {
+            @SuppressWarnings("unchecked")
+            K key = (K) oKey;
+            return inRange(key) ? CowTreeMap.this.get(key) : null;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            if (!inRange(key)) {
+                throw new IllegalArgumentException("key out of range");
+            }
+            return CowTreeMap.this.put(key, value);
+        }
+
+        @Override
+        public V remove(Object oKey) {
+            @SuppressWarnings("unchecked")
+            K key = (K) oKey;
+            return inRange(key) ? CowTreeMap.this.remove(key) : null;
+        }
+
+        @Override
+        public void clear() {
+            extractRange(fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+        }
+
+        @Override @Nonnull
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<Entry<K, V>>() {
+                @Override @Nonnull
+                public Iterator<Entry<K, V>> iterator() {
+                    return new AscendingEntryIter(fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+                }
+
+                @Override
+                public int size() {
+                    return SubMap.this.size();
+                }
+            };
+        }
+
+        @Override
+        public Iterable<Entry<K, V>> descendingEntries() {
+            return () -> new DescendingEntryIter(fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+        }
+
+        @Override @Nonnull
+        public Set<K> keySet() {
+            return navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<K> navigableKeySet() {
+            return new NavigableKeySet<>(this,
+                () -> new KeyIter(new AscendingEntryIter(fromStart, lo, loInclusive, toEnd, hi, hiInclusive)),
+                () -> new KeyIter(new DescendingEntryIter(fromStart, lo, loInclusive, toEnd, hi, hiInclusive)));
+        }
+
+        @Override
+        public NavigableSet<K> descendingKeySet() {
+            return descendingMap().navigableKeySet();
+        }
+
+        @Override
+        public CowNavigableMap<K, V> descendingMap() {
+            return new DescendingCowMap<>(this);
+        }
+
+        @Override
+        public Entry<K, V> lowerEntry(K key) {
+            return floor(key, false);
+        }
+
+        @Override
+        public K lowerKey(K key) {
+            return keyOrNull(floor(key, false));
+        }
+
+        @Override
+        public Entry<K, V> floorEntry(K key) {
+            return floor(key, true);
+        }
+
+        @Override
+        public K floorKey(K key) {
+            return keyOrNull(floor(key, true));
+        }
+
+        @Override
+        public Entry<K, V> ceilingEntry(K key) {
+            return ceiling(key, true);
+        }
+
+        @Override
+        public K ceilingKey(K key) {
+            return keyOrNull(ceiling(key, true));
+        }
+
+        @Override
+        public Entry<K, V> higherEntry(K key) {
+            return ceiling(key, false);
+        }
+
+        @Override
+        public K higherKey(K key) {
+            return keyOrNull(ceiling(key, false));
+        }
+
+        @Override
+        public Entry<K, V> firstEntry() {
+            return lowest();
+        }
+
+        @Override
+        public Entry<K, V> lastEntry() {
+            return highest();
+        }
+
+        @Override
+        public Entry<K, V> pollFirstEntry() {
+            return removeEntry(lowest());
+        }
+
+        @Override
+        public Entry<K, V> pollLastEntry() {
+            return removeEntry(highest());
+        }
+
+        @Override
+        public K firstKey() {
+            return key(lowest());
+        }
+
+        @Override
+        public K lastKey() {
+            return key(highest());
+        }
+
+        @Override
+        public CowNavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+            if (!inRange(fromKey, fromInclusive)) {
+                throw new IllegalArgumentException("fromKey out of range");
+            }
+            if (!inRange(toKey, toInclusive)) {
+                throw new IllegalArgumentException("toKey out of range");
+            }
+            return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive);
+        }
+
+        @Override
+        public CowNavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+            if (!inRange(toKey, inclusive)) {
+                throw new IllegalArgumentException("toKey out of range");
+            }
+            return new SubMap(fromStart, lo, loInclusive, false, toKey, inclusive);
+        }
+
+        @Override
+        public CowNavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+            if (!inRange(fromKey, inclusive)) {
+                throw new IllegalArgumentException("fromKey out of range");
+            }
+            return new SubMap(false, fromKey, inclusive, toEnd, hi, hiInclusive);
+        }
+    }
+
+    //endregion
+
+    //region cursors
+
+    /**
+     * A cursor over the entries of this map, starting at the first. The map must not change while the cursor is in
+     * use; a cursor over a fork is unaffected by changes to the original.
+     */
+    @Beta
+    public Cursor<K,V> cursor() {
+        return new Cursor<>(root, comparator);
+    }
+
+    /**
+     * A forward-only position in a map, which can also skip ahead to a key. Seeking climbs the path to the current key
+     * only as far as it must; so skipping over {@code d} keys takes {@code O(log d)} time, however big the map.
+     */
+    @Beta
+    public static final class Cursor<K,V> {
+        private final NodeStack<K,V> stack;
+        private final Comparator<K> comparator;
+
+        private Cursor(Node<K,V> root, Comparator<K> comparator) {
+            this.stack = new NodeStack<>(root);
+            this.comparator = comparator;
+            stack.first();
+        }
+
+        /** Whether the cursor is at an entry; else it has gone past the last. */
+        public boolean hasKey() {
+            return stack.hasKey();
+        }
+
+        /**
+         * @throws NoSuchElementException if the cursor has gone past the last entry
+         */
+        public K key() {
+            checkHasKey();
+            return stack.getKey();
+        }
+
+        /**
+         * @throws NoSuchElementException if the cursor has gone past the last entry
+         */
+        public V value() {
+            checkHasKey();
+            return stack.getValue();
+        }
+
+        /**
+         * Move to the next entry.
+         *
+         * @return whether there is one
+         */
+        public boolean next() {
+            return stack.hasKey() && stack.next();
+        }
+
+        /**
+         * Move forward to the first entry with a key at or above the given key; or stay put if already there.
+         *
+         * @return whether there is such an entry
+         */
+        public boolean seek(K key) {
+            if (!stack.hasKey()) {
+                return false;
+            }
+            return comparator.compare(stack.getKey(), key) >= 0 || stack.seek(key, comparator);
+        }
+
+        private void checkHasKey() {
+            if (!stack.hasKey()) {
+                throw new NoSuchElementException();
+            }
+        }
+    }
+
+    /**
+     * Perform the action for each key in all of the maps, in ascending order. This is a leapfrog join: each map's
+     * cursor in turn seeks to the greatest key of the others, so the maps are walked only as far as they overlap. An
+     * intersection of {@code k} keys takes roughly {@code O(k log n)} time, rather than a scan of every map. Joining
+     * nested maps level by level, on the values of the matching keys, makes a leapfrog triejoin.
+     *
+     * @throws IllegalArgumentException if the maps have different comparators
+     */
+    @Beta
+    public static <K> void leapfrogJoin(List<? extends CowTreeMap<K,?>> maps, Consumer<? super K> action) {
+        Objects.requireNonNull(action);
+        if (maps.isEmpty()) {
+            return;
+        }
+
+        CowTreeMap<K,?> first = maps.get(0);
+        Comparator<K> comparator = first.comparator;
+        List<Cursor<K,?>> cursors = new ArrayList<>(maps.size());
+        for (CowTreeMap<K,?> map : maps) {
+            if (!map.comparator.equals(comparator)) {
+                throw new IllegalArgumentException("the maps have different comparators");
+            }
+            Cursor<K,?> cursor = map.cursor();
+            if (!cursor.hasKey()) {
+                return;
+            }
+            cursors.add(cursor);
+        }
+        cursors.sort((a, b) -> comparator.compare(a.key(), b.key()));
+
+        // loop invariant: the cursors are in order of their keys, starting from the one after the greatest
+        int count = cursors.size();
+        int at = 0;
+        K greatest = cursors.get(count - 1).key();
+        for (;;) {
+            Cursor<K,?> cursor = cursors.get(at);
+            if (comparator.compare(cursor.key(), greatest) == 0) {
+                // the least key is the greatest; so they are all the same
+                action.accept(greatest);
+                if (!cursor.next()) {
+                    return;
+                }
+            } else if (!cursor.seek(greatest)) {
+                return;
+            }
+            greatest = cursor.key();
+            at = (at + 1) % count;
+        }
+    }
+
+    //endregion
+
+    //region order statistics
+
+    /**
+     * The entry at the given position in ascending order; in {@code O(log n)} time.
+     *
+     * @throws IndexOutOfBoundsException if the index isn't within {@code [0, size())}
+     */
+    @Beta
+    public Entry<K,V> getEntryAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        Node<K,V> cur = root;
+        for (;;) {
+            if (cur.isLeaf()) {
+                return exportEntry(cur, index);
+            }
+
+            int i = 0;
+            for (int childSize; index > (childSize = cur.childAt(i).size); i++) {
+                index -= childSize + 1;
+            }
+
+            if (index == cur.childAt(i).size) {
+                return exportEntry(cur, i);
+            }
+            cur = cur.childAt(i);
+        }
+    }
+
+    /**
+     * The position of the key in ascending order; in {@code O(log n)} time.
+     *
+     * @return the index of the key, if it is in the map; otherwise {@code (-(insertion point) - 1)}, as in
+     *         {@link java.util.Collections#binarySearch(java.util.List, Object, Comparator)}
+     */
+    @Beta
+    public int indexOf(K key) {
+        int rank = 0;
+        long abbreviatedKey = abbreviate(key);
+        Node<K,V> cur = root;
+        for (;;) {
+            int index = cur.searchKeys(key, abbreviatedKey, comparator);
+            if (index >= 0) {
+                return rank + index + cur.sizeOfChildren(0, index + 1);
+            }
+
+            int insertion = -index - 1;
+            rank += insertion + cur.sizeOfChildren(0, insertion);
+            if (cur.isLeaf()) {
+                return -rank - 1;
+            }
+            cur = cur.childAt(insertion);
+        }
+    }
+
+    /**
+     * The number of keys in {@code [fromKey, toKey)}; in {@code O(log n)} time.
+     *
+     * @throws IllegalArgumentException if {@code fromKey} is greater than {@code toKey}
+     */
+    @Beta
+    public int countRange(K fromKey, K toKey) {
+        if (comparator.compare(fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return rank(toKey, false) - rank(fromKey, false);
+    }
+
+    /**
+     * The number of keys less than&mdash;or equal to, when inclusive&mdash;the given key.
+     */
+    private int rank(K key, boolean inclusive) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            return inclusive ? index + 1 : index;
+        } else {
+            return -index - 1;
+        }
+    }
+
+    //endregion
+
+    //region node upkeep
+
+    /**
+     * Recompute what the nodes derive from their entries&mdash;aggregates and abbreviated keys&mdash;where the last
+     * edit left them stale. An edited node's parent was edited too, so the stale nodes hang together from the root; and
+     * only the map that owns them ever writes to them.
+     */
+    private void refreshNodes() {
+        if (aggregation != null || abbreviator != null) {
+            refresh(root);
+        }
+    }
+
+    /**
+     * As {@link #refreshNodes()}, after a put or a remove. Those carry the abbreviated keys along as they edit nodes;
+     * so unless the map keeps aggregates, only a new root may be missing them. The other stale nodes can wait for the
+     * next full refresh; which comes at the latest when the map forks, before they are shared.
+     */
+    private void refreshEditedNodes() {
+        if (aggregation != null) {
+            refresh(root);
+        } else if (abbreviator != null && root.abbreviations == null && root.numKeys > 0) {
+            root.abbreviations = abbreviationsOf(root);
+        }
+    }
+
+    private void refresh(Node<K,V> node) {
+        // N.B. a node without keys may be the shared empty node, which must not keep any one map's upkeep
+        if (node.aggregate != STALE || node.numKeys == 0) {
+            return;
+        }
+
+        if (!node.isLeaf()) {
+            for (int i = 0; i <= node.numKeys; i++) {
+                refresh(node.childAt(i));
+            }
+        }
+
+        if (abbreviator != null && node.abbreviations == null) {
+            node.abbreviations = abbreviationsOf(node);
+        }
+
+        if (aggregation == null) {
+            node.aggregate = null;
+        } else {
+            Object result = node.isLeaf() ? aggregation.identity() : aggregateOf(node.childAt(0));
+            for (int i = 0; i < node.numKeys; i++) {
+                result = aggregation.combine(result, aggregation.measure(node.valueAt(i)));
+                if (!node.isLeaf()) {
+                    result = aggregation.combine(result, aggregateOf(node.childAt(i + 1)));
+                }
+            }
+            node.aggregate = result;
+        }
+    }
+
+    private long[] abbreviationsOf(Node<K,V> node) {
+        long[] abbreviations = new long[node.numKeys];
+        for (int i = 0; i < node.numKeys; i++) {
+            abbreviations[i] = abbreviator.applyAsLong(node.keyAt(i));
+        }
+        return abbreviations;
+    }
+
+    /**
+     * The abbreviated key; or zero, which goes unused, when the map doesn't abbreviate its keys.
+     */
+    private long abbreviate(K key) {
+        return abbreviator == null ? 0 : abbreviator.applyAsLong(key);
+    }
+
+    /**
+     * An abbreviator for strings in their natural order: the first four characters, packed big-endian.
+     *
+     * @see #CowTreeMap(Comparator, int, ToLongFunction)
+     */
+    @Beta
+    public static long abbreviateString(String key) {
+        long abbreviation = 0;
+        for (int i = 0; i < 4; i++) {
+            abbreviation = (abbreviation << 16) | (i < key.length() ? key.charAt(i) : 0);
+        }
+        return abbreviation;
+    }
+
+    //endregion
+
+    //region aggregates
+
+    private Object aggregateOf(Node<K,V> node) {
+        return node.numKeys == 0 ? aggregation.identity() : node.aggregate;
+    }
+
+    /**
+     * The aggregate of the whole map. Precondition: the map keeps aggregates.
+     */
+    Object aggregate() {
+        return aggregateOf(root);
+    }
+
+    /**
+     * The aggregate of the values in the range. Precondition: the map keeps aggregates.
+     */
+    Object aggregate(boolean fromStart, K lo, boolean loInclusive, boolean toEnd, K hi, boolean hiInclusive) {
+        return aggregate(root, fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+    }
+
+    /**
+     * Only the children holding a bound need a closer look; those between them are taken whole. So at most two paths
+     * are followed down the tree.
+     */
+    private Object aggregate(Node<K,V> node, boolean fromStart, K lo, boolean loInclusive,
+                             boolean toEnd, K hi, boolean hiInclusive) {
+        if (fromStart && toEnd) {
+            return aggregateOf(node);
+        }
+
+        int start = fromStart ? 0 : firstIndexWithin(node, lo, loInclusive);
+        int end = toEnd ? node.numKeys : firstIndexBeyond(node, hi, hiInclusive);
+
+        if (node.isLeaf()) {
+            Object result = aggregation.identity();
+            for (int i = start; i < end; i++) {
+                result = aggregation.combine(result, aggregation.measure(node.valueAt(i)));
+            }
+            return result;
+        }
+
+        if (start == end) {
+            return aggregate(node.childAt(start), fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+        }
+
+        Object result = aggregate(node.childAt(start), fromStart, lo, loInclusive, true, null, false);
+        for (int i = start; i < end; i++) {
+            result = aggregation.combine(result, aggregation.measure(node.valueAt(i)));
+            result = aggregation.combine(result, i + 1 < end ?
+                aggregateOf(node.childAt(i + 1)) :
+                aggregate(node.childAt(i + 1), true, null, false, toEnd, hi, hiInclusive));
+        }
+        return result;
+    }
+
+    /** The index of the first key in the node at or above&mdash;or only above, unless inclusive&mdash;the bound. */
+    private int firstIndexWithin(Node<K,V> node, K lo, boolean inclusive) {
+        int index = node.searchKeys(lo, comparator);
+        return index >= 0 ? (inclusive ? index : index + 1) : -index - 1;
+    }
+
+    /** The index of the first key in the node above&mdash;or at or above, unless inclusive&mdash;the bound. */
+    private int firstIndexBeyond(Node<K,V> node, K hi, boolean inclusive) {
+        int index = node.searchKeys(hi, comparator);
+        return index >= 0 ? (inclusive ? index + 1 : index) : -index - 1;
+    }
+
+    //endregion
+
+    //region bulk loading
+
+    /**
+     * A map of the given entries, which must be in strictly ascending order by the comparator; in {@code O(n)} time.
+     * The nodes are packed full, whereas putting keys in order one at a time leaves them half full.
+     *
+     * @throws IllegalArgumentException if the entries are out of order
+     */
+    @Beta
+    public static <K,V> CowTreeMap<K,V> fromSorted(Comparator<K> comparator,
+                                                   Iterator<? extends Entry<? extends K, ? extends V>> entries) {
+        CowTreeMap<K,V> map = new CowTreeMap<>(comparator);
+        map.loadSorted(entries);
+        return map;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>When the other map is a {@code CowTreeMap} with the same comparator, the two are merged as in
+     * {@link #union(CowTreeMap)}. When it is otherwise sorted in the same order, this map is bulk-loaded as in
+     * {@link #fromSorted(Comparator, Iterator)} if empty, or else merged with as in {@link #putAllSorted(Iterator)}.
+     * </p>
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        if (m instanceof CowTreeMap<?,?> && ((CowTreeMap<?, ?>) m).comparator.equals(comparator)) {
+            @SuppressWarnings("unchecked")
+            CowTreeMap<K,V> other = (CowTreeMap<K,V>) m;
+            union(other);
+        } else if (m instanceof SortedMap<?,?> && isSameOrder(((SortedMap<?, ?>) m).comparator())) {
+            if (size == 0) {
+                loadSorted(m.entrySet().iterator());
+            } else {
+                applySorted(m.entrySet().iterator(), null);
+            }
+        } else {
+            super.putAll(m);
+        }
+    }
+
+    private boolean isSameOrder(Comparator<?> other) {
+        return other == null ? comparator == (Object) Comparator.naturalOrder() : other.equals(comparator);
+    }
+
+    /**
+     * Replace the map's entries with the given ones. If they are out of order, the map is left as it was.
+     */
+    private void loadSorted(Iterator<? extends Entry<? extends K, ? extends V>> entries) {
+        BulkLoader<K,V> loader = new BulkLoader<>(generation, comparator, minKeys, maxKeys);
+        while (entries.hasNext()) {
+            Entry<? extends K, ? extends V> entry = entries.next();
+            loader.add(entry.getKey(), entry.getValue());
+        }
+
+        root = loader.finish();
+        size = root.size;
+        rightEdge = null;
+        refreshNodes();
+    }
+
+    /**
+     * Builds a tree bottom-up from sorted entries. The leaves are filled in one pass; then each level of inner nodes
+     * is built from the one below it. Every node is full, except that the last two nodes of a level may share their
+     * keys to keep the last one above the minimum.
+     */
+    private static final class BulkLoader<K,V> {
+        private final long generation;
+        private final Comparator<K> comparator;
+        private final int minKeys;
+        private final int maxKeys;
+
+        /** The finished nodes of the current level. */
+        private List<Node<K,V>> nodes = new ArrayList<>();
+        /** The keys and values between the finished nodes; the pair at {@code 2*i} is between nodes i and i+1. */
+        private List<Object> separators = new ArrayList<>();
+
+        private final Object[] leafKeys;
+        private final Object[] leafValues;
+        private int leafSize;
+
+        private boolean isEmpty = true;
+        private K lastKey;
+
+        BulkLoader(long generation, Comparator<K> comparator, int minKeys, int maxKeys) {
+            this.generation = generation;
+            this.comparator = comparator;
+            this.minKeys = minKeys;
+            this.maxKeys = maxKeys;
+            this.leafKeys = new Object[maxKeys];
+            this.leafValues = new Object[maxKeys];
+        }
+
+        void add(K key, V value) {
+            if (!isEmpty && comparator.compare(lastKey, key) >= 0) {
+                throw new IllegalArgumentException("keys are not in ascending order: " + lastKey + " then " + key);
+            }
+            isEmpty = false;
+            lastKey = key;
+            append(key, value);
+        }
+
+        /**
+         * As {@link #add(Object, Object)}, for keys already known to be in order.
+         */
+        void append(K key, V value) {
+            if (leafSize == maxKeys) {
+                nodes.add(Node.of(generation, maxKeys, maxKeys, leafKeys, leafValues, null));
+                separators.add(key);
+                separators.add(value);
+                leafSize = 0;
+            } else {
+                leafKeys[leafSize] = key;
+                leafValues[leafSize] = value;
+                leafSize++;
+            }
+        }
+
+        Node<K,V> finish() {
+            Node<K,V> lastLeaf = Node.of(generation, leafSize, leafSize, leafKeys, leafValues, null);
+            if (nodes.isEmpty()) {
+                return leafSize == 0 ? emptyNode() : lastLeaf;
+            }
+
+            nodes.add(lastLeaf);
+            balanceLastNodes();
+
+            while (nodes.size() > 1) {
+                buildNextLevel();
+                balanceLastNodes();
+            }
+            return nodes.get(0);
+        }
+
+        private void buildNextLevel() {
+            List<Node<K,V>> parents = new ArrayList<>();
+            List<Object> parentSeparators = new ArrayList<>();
+
+            int fanout = maxKeys + 1;
+            Object[] keys = new Object[maxKeys];
+            Object[] values = new Object[maxKeys];
+            Object[] children = new Object[fanout];
+            for (int from = 0, count = nodes.size(); from < count; from += fanout) {
+                if (from > 0) {
+                    parentSeparators.add(separators.get(2*(from-1)));
+                    parentSeparators.add(separators.get(2*(from-1) + 1));
+                }
+
+                int numKeys = Math.min(fanout, count - from) - 1;
+                int parentSize = numKeys;
+                for (int i = 0; i < numKeys; i++) {
+                    keys[i] = separators.get(2*(from+i));
+                    values[i] = separators.get(2*(from+i) + 1);
+                }
+                for (int i = 0; i <= numKeys; i++) {
+                    Node<K,V> child = nodes.get(from + i);
+                    children[i] = child;
+                    parentSize += child.size;
+                }
+
+                parents.add(Node.of(generation, numKeys, parentSize, keys, values, children));
+            }
+
+            nodes = parents;
+            separators = parentSeparators;
+        }
+
+        /**
+         * The last node of a level may be short of the minimum, but its left sibling is full; so rotate keys over.
+         */
+        private void balanceLastNodes() {
+            int last = nodes.size() - 1;
+            if (last < 1 || nodes.get(last).numKeys >= minKeys) {
+                return;
+            }
+
+            Node<K,V> left = nodes.get(last - 1);
+            Node<K,V> right = nodes.get(last);
+            int separator = 2*(last - 1);
+
+            Node<K,V> parent = Node.of(generation, 1, left.size + right.size + 1,
+                new Object[] { separators.get(separator) },
+                new Object[] { separators.get(separator + 1) },
+                new Object[] { left, right });
+            while (parent.childAt(1).numKeys < minKeys) {
+                parent = parent.rotateRightAt(generation, 0);
+            }
+
+            nodes.set(last - 1, parent.childAt(0));
+            nodes.set(last, parent.childAt(1));
+            separators.set(separator, parent.keyAt(0));
+            separators.set(separator + 1, parent.valueAt(0));
+        }
+    }
+
+    //endregion
+
+    //region sorted batches
+
+    /**
+     * Put the given entries, which must be in strictly ascending order by the comparator. The tree and the entries are
+     * walked together, rather than searching from the root for each key: each node with keys to put is copied once,
+     * and the subtrees between them stay shared with any forks. So {@code k} entries take {@code O(k log n)} time at
+     * worst, and much less when they are bunched together.
+     *
+     * @throws IllegalArgumentException if the entries are out of order; the map is then left unchanged
+     */
+    @Beta
+    public void putAllSorted(Iterator<? extends Entry<? extends K, ? extends V>> entries) {
+        applySorted(entries, null);
+    }
+
+    /**
+     * As {@link #merge(Object, Object, BiFunction)} for each of the given entries, which must be in strictly ascending
+     * order by the comparator; but walking the tree and the entries together as in {@link #putAllSorted(Iterator)}.
+     *
+     * @throws IllegalArgumentException if the entries are out of order; the map is then left unchanged
+     * @throws NullPointerException if any of the values is null; the map is then left unchanged
+     */
+    @Beta
+    public void mergeSorted(Iterator<? extends Entry<? extends K, ? extends V>> entries,
+                            BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        applySorted(entries, Objects.requireNonNull(remappingFunction));
+    }
+
+    /**
+     * @param remappingFunction null to put the given values
+     */
+    private void applySorted(Iterator<? extends Entry<? extends K, ? extends V>> entries,
+                             BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (!entries.hasNext()) {
+            return;
+        }
+
+        SortedMerger<K,V> merger = new SortedMerger<>(generation, comparator, maxKeys, entries, remappingFunction);
+        root = merger.mergeInto(root);
+        size = root.size;
+        rightEdge = null;
+        refreshNodes();
+
+        // Removals would leave nodes short of keys; so the merge keeps them, and they go one at a time.
+        for (K key : merger.removals) {
+            doRemove(key, ALWAYS_REMOVE);
+        }
+    }
+
+    /**
+     * Merges sorted entries into a tree, node by node. Each node the entries fall into is rebuilt once, and may come
+     * out as several nodes of the same height, with separators between them, for its parent to take in. Nodes come out
+     * evenly filled, so none is short of the minimum.
+     */
+    private static final class SortedMerger<K,V> {
+        private static final Object UNBOUNDED = new Object();
+
+        private final long generation;
+        private final Comparator<K> comparator;
+        private final int maxKeys;
+        private final Iterator<? extends Entry<? extends K, ? extends V>> entries;
+        /** Null to put the given values; otherwise as in {@link Map#merge(Object, Object, BiFunction)}. */
+        private final BiFunction<? super V, ? super V, ? extends V> remappingFunction;
+
+        /** The keys whose merged values came out null. */
+        final List<K> removals = new ArrayList<>();
+
+        /** The node being rebuilt at each depth; reused from one node to the next. */
+        private final List<Run<K,V>> runs = new ArrayList<>();
+
+        private boolean hasNext;
+        private K nextKey;
+        private V nextValue;
+
+        SortedMerger(long generation, Comparator<K> comparator, int maxKeys,
+                     Iterator<? extends Entry<? extends K, ? extends V>> entries,
+                     BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+            this.generation = generation;
+            this.comparator = comparator;
+            this.maxKeys = maxKeys;
+            this.entries = entries;
+            this.remappingFunction = remappingFunction;
+        }
+
+        Node<K,V> mergeInto(Node<K,V> root) {
+            advance();
+
+            Run<K,V> level = new Run<>();
+            merge(root, UNBOUNDED, 0, level);
+
+            // the root came out as more than one node; so grow the tree upward
+            while (level.numChildren > 1) {
+                Run<K,V> parents = new Run<>();
+                distribute(level, false, parents);
+                level = parents;
+            }
+            return level.children[0];
+        }
+
+        private void advance() {
+            if (!entries.hasNext()) {
+                hasNext = false;
+                nextKey = null;
+                nextValue = null;
+                return;
+            }
+
+            Entry<? extends K, ? extends V> entry = entries.next();
+            K key = entry.getKey();
+            if (hasNext && comparator.compare(nextKey, key) >= 0) {
+                throw new IllegalArgumentException("keys are not in ascending order: " + nextKey + " then " + key);
+            }
+            V value = entry.getValue();
+            if (remappingFunction != null && value == null) {
+                // as Map.merge has it; else the entry would be put, then removed
+                throw new NullPointerException("null value for key " + key);
+            }
+            hasNext = true;
+            nextKey = key;
+            nextValue = value;
+        }
+
+        private boolean hasNextBelow(Object bound) {
+            @SuppressWarnings("unchecked")
+            K boundKey = (K) bound;
+            return hasNext && (bound == UNBOUNDED || comparator.compare(nextKey, boundKey) < 0);
+        }
+
+        /** The next entry's value merged with the current value of its key; then on to the following entry. */
+        private V mergeNext(K key, V currentValue) {
+            V value = nextValue;
+            if (remappingFunction != null && currentValue != null) {
+                value = remappingFunction.apply(currentValue, value);
+            }
+            if (remappingFunction != null && value == null) {
+                removals.add(key);
+                value = currentValue;
+            }
+            advance();
+            return value;
+        }
+
+        /**
+         * Merge the entries below the bound into the node, adding what comes out to the parent's run.
+         */
+        private void merge(Node<K,V> node, Object bound, int depth, Run<K,V> parent) {
+            if (depth == runs.size()) {
+                runs.add(new Run<>());
+            }
+            Run<K,V> run = runs.get(depth);
+            run.clear();
+
+            if (node.isLeaf()) {
+                int index = 0;
+                while (index < node.numKeys || hasNextBelow(bound)) {
+                    int dir = index == node.numKeys ? 1
+                        : !hasNextBelow(bound) ? -1
+                        : comparator.compare(node.keyAt(index), nextKey);
+                    if (dir < 0) {
+                        run.addEntry(node.keyAt(index), node.valueAt(index));
+                        index++;
+                    } else if (dir > 0) {
+                        K key = nextKey;
+                        run.addEntry(key, mergeNext(key, null));
+                    } else {
+                        K key = node.keyAt(index);
+                        run.addEntry(key, mergeNext(key, node.valueAt(index)));
+                        index++;
+                    }
+                }
+            } else {
+                for (int index = 0; index <= node.numKeys; index++) {
+                    Object childBound = index < node.numKeys ? node.keyAt(index) : bound;
+                    if (hasNextBelow(childBound)) {
+                        merge(node.childAt(index), childBound, depth + 1, run);
+                    } else {
+                        // nothing to put here; share the whole subtree
+                        run.addChild(node.childAt(index));
+                    }
+
+                    if (index < node.numKeys) {
+                        K key = node.keyAt(index);
+                        boolean isNext = hasNext && comparator.compare(nextKey, key) == 0;
+                        run.addEntry(key, isNext ? mergeNext(key, node.valueAt(index)) : node.valueAt(index));
+                    }
+                }
+            }
+
+            distribute(run, node.isLeaf(), parent);
+        }
+
+        /**
+         * Spread the run over as few nodes as will hold it; adding the nodes, and the entries between them, to the
+         * parent's run.
+         */
+        private void distribute(Run<K,V> run, boolean isLeaf, Run<K,V> parent) {
+            int numEntries = run.numEntries;
+            int numNodes = (numEntries + 1 + maxKeys) / (maxKeys + 1);
+            int numKeys = numEntries - (numNodes - 1);
+
+            int from = 0;
+            for (int i = 0; i < numNodes; i++) {
+                int nodeKeys = numKeys / numNodes + (i < numKeys % numNodes ? 1 : 0);
+                parent.addChild(node(run, isLeaf, from, nodeKeys));
+                from += nodeKeys;
+
+                if (i < numNodes - 1) {
+                    parent.addEntry(run.entries[2*from], run.entries[2*from + 1]);
+                    from++;
+                }
+            }
+        }
+
+        private Node<K,V> node(Run<K,V> run, boolean isLeaf, int from, int numKeys) {
+            Object[] nodes = Node.newNodes(numKeys, isLeaf);
+            int size = numKeys;
+            for (int i = 0; i < numKeys; i++) {
+                Node.setEntry(nodes, numKeys, i, run.entries[2*(from+i)], run.entries[2*(from+i) + 1]);
+            }
+            if (!isLeaf) {
+                for (int i = 0; i <= numKeys; i++) {
+                    Node<K,V> child = run.children[from + i];
+                    Node.setChild(nodes, numKeys, i, child);
+                    size += child.size;
+                }
+            }
+            return new Node<>(generation, numKeys, size, nodes);
+        }
+    }
+
+    /** The entries, interleaved with their values, and children of a node being rebuilt. */
+    private static final class Run<K,V> {
+        Object[] entries = new Object[2 * DEFAULT_FANOUT];
+        int numEntries;
+        Node<K,V>[] children = newNodeArray(DEFAULT_FANOUT);
+        int numChildren;
+
+        void clear() {
+            numEntries = 0;
+            numChildren = 0;
+        }
+
+        void addEntry(Object key, Object value) {
+            if (2*numEntries == entries.length) {
+                entries = Arrays.copyOf(entries, 2 * entries.length);
+            }
+            entries[2*numEntries] = key;
+            entries[2*numEntries + 1] = value;
+            numEntries++;
+        }
+
+        void addChild(Node<K,V> child) {
+            if (numChildren == children.length) {
+                children = Arrays.copyOf(children, 2 * children.length);
+            }
+            children[numChildren++] = child;
+        }
+    }
+
+    //endregion
+
+    //region diff
+
+    /**
+     * Receives the differences between two maps, in ascending order of their keys.
+     */
+    @Beta
+    public interface DiffVisitor<K,V> {
+        /** The key is in the newer map only. */
+        void added(K key, V value);
+
+        /** The key is in the older map only. */
+        void removed(K key, V oldValue);
+
+        /** The key is in both maps, with values that are not equal. */
+        void changed(K key, V oldValue, V newValue);
+    }
+
+    /**
+     * Report the differences from an older map to this one, in key order. The trees are walked together, and any
+     * subtree the two maps still share is skipped whole; so between a map and a recent fork of it, this takes time in
+     * proportion to the changes between them (times the height of the tree) rather than to their size. Where the trees
+     * differ, their entries are merged in order; so any two maps with the same comparator may be compared.
+     *
+     * @throws IllegalArgumentException if the maps have different comparators
+     */
+    @Beta
+    public void diff(CowTreeMap<K,V> older, DiffVisitor<? super K, ? super V> visitor) {
+        Objects.requireNonNull(visitor);
+        walkTogether(older, new MergeVisitor<K,V>() {
+            @Override
+            public void added(K key, V value) {
+                visitor.added(key, value);
+            }
+
+            @Override
+            public void removed(K key, V oldValue) {
+                visitor.removed(key, oldValue);
+            }
+
+            @Override
+            public void inBoth(K key, V oldValue, V newValue) {
+                if (!Objects.equals(oldValue, newValue)) {
+                    visitor.changed(key, oldValue, newValue);
+                }
+            }
+
+            @Override
+            public void shared(Node<K,V> subtree) {
+            }
+        });
+    }
+
+    /**
+     * As for any {@link Map}. Against another {@code CowTreeMap} with the same comparator, the trees are walked
+     * together as in {@link #diff}, skipping whole any subtree the two share and stopping at the first difference; so a
+     * map and a fork of it compare in time proportional to the changes between them rather than to their size, and a
+     * fork left unchanged compares equal at once.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof CowTreeMap && ((CowTreeMap<?,?>) o).comparator.equals(comparator)) {
+            @SuppressWarnings("unchecked")
+            CowTreeMap<K,V> other = (CowTreeMap<K,V>) o;
+            return sameEntries(other);
+        }
+        return super.equals(o);
+    }
+
+    /**
+     * As for any {@link Map}. Each node keeps the hash of its subtree once asked for it, until it is next edited; and
+     * forks share them along with the nodes. So after a few changes the hash takes time in proportion to the nodes
+     * edited since, rather than to the size of the map. As with the aggregates, a value changed in place rather than
+     * put again goes unnoticed.
+     */
+    @Override
+    public int hashCode() {
+        return hashOf(root);
+    }
+
+    private boolean sameEntries(CowTreeMap<K,V> other) {
+        if (other.root == root) {
+            return true;
+        }
+        if (other.size != size
+            || (root.hash != UNHASHED && other.root.hash != UNHASHED && root.hash != other.root.hash)) {
+            return false;
+        }
+
+        EqualityCheck<K,V> check = new EqualityCheck<>();
+        walkTogether(other, check);
+        return !check.differs;
+    }
+
+    private static <K,V> int hashOf(Node<K,V> node) {
+        int hash = node.hash;
+        if (hash == UNHASHED) {
+            hash = 0;
+            for (int i = 0; i < node.numKeys; i++) {
+                hash += Objects.hashCode(node.keyAt(i)) ^ Objects.hashCode(node.valueAt(i));
+            }
+            if (!node.isLeaf()) {
+                for (int i = 0; i <= node.numKeys; i++) {
+                    hash += hashOf(node.childAt(i));
+                }
+            }
+            node.hash = hash;
+        }
+        return hash;
+    }
+
+    /** Finishes at the first key not in both maps with equal values. */
+    private static final class EqualityCheck<K,V> implements MergeVisitor<K,V> {
+        boolean differs;
+
+        @Override
+        public void added(K key, V value) {
+            differs = true;
+        }
+
+        @Override
+        public void removed(K key, V oldValue) {
+            differs = true;
+        }
+
+        @Override
+        public void inBoth(K key, V oldValue, V newValue) {
+            if (!Objects.equals(oldValue, newValue)) {
+                differs = true;
+            }
+        }
+
+        @Override
+        public void shared(Node<K,V> subtree) {
+        }
+
+        @Override
+        public boolean isFinished() {
+            return differs;
+        }
+    }
+
+    /**
+     * The events of walking two trees together: every key falls in one of the four.
+     */
+    private interface MergeVisitor<K,V> {
+        /** The key is in the newer map only. */
+        void added(K key, V value);
+
+        /** The key is in the older map only. */
+        void removed(K key, V oldValue);
+
+        /** The key is in both maps, in nodes not shared between them. */
+        void inBoth(K key, V oldValue, V newValue);
+
+        /** The whole subtree is in both maps. */
+        void shared(Node<K,V> subtree);
+
+        /** Whether the walk may stop short; asked after each step. */
+        default boolean isFinished() {
+            return false;
+        }
+    }
+
+    private void walkTogether(CowTreeMap<K,V> older, MergeVisitor<K,V> visitor) {
+        if (!older.comparator.equals(comparator)) {
+            throw new IllegalArgumentException("the maps have different comparators");
+        }
+
+        DiffCursor<K,V> before = new DiffCursor<>(older.root);
+        DiffCursor<K,V> after = new DiffCursor<>(root);
+
+        // loop invariant: every key below the cursors has been visited
+        while (!before.isDone() && !after.isDone()) {
+            if (visitor.isFinished()) {
+                return;
+            }
+
+            boolean beforeAtChild = before.isAtChild();
+            boolean afterAtChild = after.isAtChild();
+
+            if (beforeAtChild && afterAtChild) {
+                Node<K,V> beforeChild = before.child();
+                Node<K,V> afterChild = after.child();
+                int beforeHeight = before.childHeight();
+                int afterHeight = after.childHeight();
+                if (beforeChild == afterChild) {
+                    visitor.shared(afterChild);
+                    before.skip();
+                    after.skip();
+                } else if (beforeHeight > afterHeight) {
+                    before.descend();
+                } else if (afterHeight > beforeHeight) {
+                    after.descend();
+                } else {
+                    // of the same height, so neither holds the other
+                    before.descend();
+                    after.descend();
+                }
+            } else if (beforeAtChild) {
+                // a key strictly below the whole subtree cannot be in it; else the subtree is not shared
+                if (comparator.compare(after.key(), firstKeyOf(before.child())) < 0) {
+                    visitor.added(after.key(), after.value());
+                    after.skip();
+                } else {
+                    before.descend();
+                }
+            } else if (afterAtChild) {
+                if (comparator.compare(before.key(), firstKeyOf(after.child())) < 0) {
+                    visitor.removed(before.key(), before.value());
+                    before.skip();
+                } else {
+                    after.descend();
+                }
+            } else {
+                int dir = comparator.compare(before.key(), after.key());
+                if (dir < 0) {
+                    visitor.removed(before.key(), before.value());
+                    before.skip();
+                } else if (dir > 0) {
+                    visitor.added(after.key(), after.value());
+                    after.skip();
+                } else {
+                    visitor.inBoth(before.key(), before.value(), after.value());
+                    before.skip();
+                    after.skip();
+                }
+            }
+        }
+
+        for (; !before.isDone() && !visitor.isFinished(); before.skip()) {
+            if (before.isAtChild()) {
+                forEach(before.child(), visitor::removed);
+            } else {
+                visitor.removed(before.key(), before.value());
+            }
+        }
+        for (; !after.isDone() && !visitor.isFinished(); after.skip()) {
+            if (after.isAtChild()) {
+                forEach(after.child(), visitor::added);
+            } else {
+                visitor.added(after.key(), after.value());
+            }
+        }
+    }
+
+    private static <K,V> K firstKeyOf(Node<K,V> node) {
+        while (!node.isLeaf()) {
+            node = node.childAt(0);
+        }
+        return node.keyAt(0);
+    }
+
+    /**
+     * Walks a tree in order, stopping at each child before its subtree and at each key; so that a whole subtree may be
+     * skipped, or descended into.
+     */
+    private static final class DiffCursor<K,V> {
+        private final int height;
+        private Node<K,V>[] nodes = newNodeArray(PATH_LENGTH_HINT);
+        /**
+         * The position in each node along the path: the children at the even positions and the keys at the odd ones;
+         * or only keys in a leaf.
+         */
+        private int[] positions = new int[PATH_LENGTH_HINT];
+        private int depth;
+
+        DiffCursor(Node<K,V> root) {
+            int height = 1;
+            for (Node<K,V> node = root; !node.isLeaf(); node = node.childAt(0)) {
+                height++;
+            }
+            this.height = height;
+            nodes[0] = root;
+            depth = 1;
+            settle();
+        }
+
+        boolean isDone() {
+            return depth == 0;
+        }
+
+        boolean isAtChild() {
+            return !top().isLeaf() && (position() & 1) == 0;
+        }
+
+        Node<K,V> child() {
+            return top().childAt(position() >>> 1);
+        }
+
+        /** The height of the subtree at the cursor; a leaf is one. */
+        int childHeight() {
+            return height - depth;
+        }
+
+        K key() {
+            return top().keyAt(keyIndex());
+        }
+
+        V value() {
+            return top().valueAt(keyIndex());
+        }
+
+        /** Move past the child or key at the cursor. */
+        void skip() {
+            positions[depth - 1]++;
+            settle();
+        }
+
+        /** Move to the first child or key in the subtree at the cursor. */
+        void descend() {
+            Node<K,V> child = child();
+            positions[depth - 1]++;
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * depth);
+                positions = Arrays.copyOf(positions, 2 * depth);
+            }
+            nodes[depth] = child;
+            positions[depth] = 0;
+            depth++;
+            settle();
+        }
+
+        private Node<K,V> top() {
+            return nodes[depth - 1];
+        }
+
+        private int position() {
+            return positions[depth - 1];
+        }
+
+        private int keyIndex() {
+            return top().isLeaf() ? position() : position() >>> 1;
+        }
+
+        /** Back out of the nodes the cursor has gone past the end of. */
+        private void settle() {
+            while (depth > 0) {
+                Node<K,V> node = top();
+                int end = node.isLeaf() ? node.numKeys : 2*node.numKeys + 1;
+                if (position() < end) {
+                    return;
+                }
+                nodes[--depth] = null;
+            }
+        }
+    }
+
+    //endregion
+
+    //region set algebra
+
+    /**
+     * Put every entry of the other map, as in {@link #putAll(Map)}. The two maps are walked together as in
+     * {@link #diff(CowTreeMap, DiffVisitor)}, and only the entries that differ are put, as in
+     * {@link #putAllSorted(Iterator)}; so for a fork of this map, this takes time in proportion to the changes
+     * between them rather than to the size of either.
+     *
+     * @return whether this map changed
+     * @throws IllegalArgumentException if the maps have different comparators
+     */
+    @Beta
+    public boolean union(CowTreeMap<K,V> other) {
+        List<Entry<K,V>> changes = new ArrayList<>();
+        other.walkTogether(this, new MergeVisitor<K,V>() {
+            @Override
+            public void added(K key, V value) {
+                changes.add(new SimpleImmutableEntry<>(key, value));
+            }
+
+            @Override
+            public void removed(K key, V oldValue) {
+            }
+
+            @Override
+            public void inBoth(K key, V oldValue, V newValue) {
+                if (oldValue != newValue) {
+                    changes.add(new SimpleImmutableEntry<>(key, newValue));
+                }
+            }
+
+            @Override
+            public void shared(Node<K,V> subtree) {
+            }
+        });
+
+        putAllSorted(changes.iterator());
+        return !changes.isEmpty();
+    }
+
+    /**
+     * Keep only the keys that are also in the other map, as in {@code keySet().retainAll(other.keySet())}; but walking
+     * the two maps together as in {@link #union(CowTreeMap)}.
+     *
+     * @return whether this map changed
+     * @throws IllegalArgumentException if the maps have different comparators
+     */
+    @Beta
+    public boolean intersect(CowTreeMap<K,?> other) {
+        return removeKeys(other, false);
+    }
+
+    /**
+     * Remove the keys that are also in the other map, as in {@code keySet().removeAll(other.keySet())}; but walking
+     * the two maps together as in {@link #union(CowTreeMap)}.
+     *
+     * @return whether this map changed
+     * @throws IllegalArgumentException if the maps have different comparators
+     */
+    @Beta
+    public boolean subtract(CowTreeMap<K,?> other) {
+        return removeKeys(other, true);
+    }
+
+    /**
+     * Remove the keys that are, or else are not, in the other map. A few are removed one at a time; but when most of
+     * the map goes, what is left is bulk-loaded instead.
+     */
+    private boolean removeKeys(CowTreeMap<K,?> other, boolean inOther) {
+        // the keys are this map's own objects; so they can be recognized by identity below
+        List<K> removals = new ArrayList<>();
+
+        @SuppressWarnings("unchecked")
+        CowTreeMap<K,V> others = (CowTreeMap<K,V>) other;
+        others.walkTogether(this, new MergeVisitor<K,V>() {
+            @Override
+            public void added(K key, V value) {
+            }
+
+            @Override
+            public void removed(K key, V oldValue) {
+                if (!inOther) {
+                    removals.add(key);
+                }
+            }
+
+            @Override
+            public void inBoth(K key, V oldValue, V newValue) {
+                if (inOther) {
+                    removals.add(key);
+                }
+            }
+
+            @Override
+            public void shared(Node<K,V> subtree) {
+                if (inOther) {
+                    forEachKey(subtree, removals::add);
+                }
+            }
+        });
+
+        if (removals.size() > size / 2) {
+            Iterator<Entry<K,V>> entries = entrySet().iterator();
+            loadSorted(new Iterator<Entry<K, V>>() {
+                private int removed = 0;
+                private Entry<K,V> next = advance();
+
+                private Entry<K,V> advance() {
+                    while (entries.hasNext()) {
+                        Entry<K,V> entry = entries.next();
+                        if (removed < removals.size() && entry.getKey() == removals.get(removed)) {
+                            removed++;
+                        } else {
+                            return entry;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Entry<K, V> next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    Entry<K,V> entry = next;
+                    next = advance();
+                    return entry;
+                }
+            });
+        } else {
+            for (K key : removals) {
+                doRemove(key, ALWAYS_REMOVE);
+            }
+        }
+        return !removals.isEmpty();
+    }
+
+    //endregion
+
+    //region split and join
+
+    /**
+     * Move the keys at or above the given key into a new map, leaving the lesser keys in this map. Whole subtrees move
+     * over by reference, so this takes {@code O(log n)} time.
+     */
+    @Beta
+    public CowTreeMap<K,V> split(K key) {
+        Cut<K,V> cut = cut(treeOf(root), key, false);
+        setTree(cut.left);
+
+        // the two maps share no nodes, so both may keep editing in place
+        return new CowTreeMap<>(generation, cut.right.root.size, cut.right.root, comparator, fanout(), aggregation, abbreviator);
+    }
+
+    /**
+     * Append the entries of the other map, whose keys must all be greater than those in this map; in
+     * {@code O(log n)} time. The other map is left as it was; the two share structure just as if forked.
+     *
+     * @throws IllegalArgumentException if the keys of the maps overlap, or their fanouts differ
+     */
+    @Beta
+    public void join(CowTreeMap<K,V> other) {
+        if (other.size == 0) {
+            return;
+        }
+        if (other.maxKeys != maxKeys) {
+            throw new IllegalArgumentException("the maps have different fanouts");
+        }
+        if (other.aggregation != aggregation) {
+            throw new IllegalArgumentException("the maps have different aggregations");
+        }
+        if (other.abbreviator != abbreviator) {
+            throw new IllegalArgumentException("the maps have different key abbreviators");
+        }
+        if (size > 0 && comparator.compare(lastKey(), other.firstKey()) >= 0) {
+            throw new IllegalArgumentException("the other map has keys not above this map's last key");
+        }
+
+        // Like a fork: neither map may edit the shared nodes in place anymore. The generations of separate maps are
+        // unrelated, so this map must also move past every generation in the other.
+        other.refreshNodes();
+        long otherGeneration = other.generation++;
+        generation = Math.max(generation, otherGeneration) + 1;
+
+        setTree(concat(treeOf(root), treeOf(other.root)));
+    }
+
+    /**
+     * Remove the keys in {@code [fromKey, toKey)}; in {@code O(log n)} time however many are removed.
+     *
+     * @throws IllegalArgumentException if {@code fromKey} is greater than {@code toKey}
+     */
+    @Beta
+    public void removeRange(K fromKey, K toKey) {
+        extractRange(fromKey, toKey);
+    }
+
+    /**
+     * Move the keys in {@code [fromKey, toKey)} into a new map; in {@code O(log n)} time however many are moved.
+     *
+     * @throws IllegalArgumentException if {@code fromKey} is greater than {@code toKey}
+     */
+    @Beta
+    public CowTreeMap<K,V> extractRange(K fromKey, K toKey) {
+        if (comparator.compare(fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return extractRange(false, fromKey, true, false, toKey, false);
+    }
+
+    private CowTreeMap<K,V> extractRange(boolean fromStart, K lo, boolean loInclusive,
+                                         boolean toEnd, K hi, boolean hiInclusive) {
+        Tree<K,V> below = emptyTree();
+        Tree<K,V> within = treeOf(root);
+        Tree<K,V> above = emptyTree();
+
+        if (!fromStart) {
+            Cut<K,V> cut = cut(within, lo, !loInclusive);
+            below = cut.left;
+            within = cut.right;
+        }
+        if (!toEnd) {
+            Cut<K,V> cut = cut(within, hi, hiInclusive);
+            within = cut.left;
+            above = cut.right;
+        }
+
+        setTree(concat(below, above));
+        return new CowTreeMap<>(generation, within.root.size, within.root, comparator, fanout(), aggregation, abbreviator);
+    }
+
+    private void setTree(Tree<K,V> tree) {
+        root = tree.root;
+        size = tree.root.size;
+        rightEdge = null;
+        refreshNodes();
+    }
+
+    /**
+     * A subtree standing on its own, along with its height: zero for a leaf, and -1 for the empty tree. Unlike within a
+     * tree, the root may have fewer than the minimum number of keys.
+     */
+    private static final class Tree<K,V> {
+        final Node<K,V> root;
+        final int height;
+
+        Tree(Node<K, V> root, int height) {
+            this.root = root;
+            this.height = height;
+        }
+
+        boolean isEmpty() {
+            return height < 0;
+        }
+    }
+
+    private static final Tree<?,?> EMPTY_TREE = new Tree<>(EMPTY_NODE, -1);
+
+    @SuppressWarnings("unchecked")
+    private static <K,V> Tree<K,V> emptyTree() {
+        return (Tree<K,V>) EMPTY_TREE;
+    }
+
+    private static <K,V> Tree<K,V> treeOf(Node<K,V> root) {
+        int height = 0;
+        for (Node<K,V> cur = root; !cur.isLeaf(); cur = cur.childAt(0)) {
+            height++;
+        }
+        return tree(root, height);
+    }
+
+    /**
+     * A node without keys stands for its only child; or, as a leaf, for the empty tree.
+     */
+    private static <K,V> Tree<K,V> tree(Node<K,V> root, int height) {
+        while (root.numKeys == 0) {
+            if (root.isLeaf()) {
+                return emptyTree();
+            }
+            root = root.childAt(0);
+            height--;
+        }
+        return new Tree<>(root, height);
+    }
+
+    /** The two sides of a tree cut at a key; and the entry for that key, when it was in the tree. */
+    private static final class Cut<K,V> {
+        Tree<K,V> left;
+        Tree<K,V> right;
+        boolean found;
+        K key;
+        V value;
+    }
+
+    /**
+     * Cut the tree in two at the key. If the tree has the key, its entry goes to the left side when
+     * {@code keyGoesLeft}; otherwise to the right.
+     */
+    private Cut<K,V> cut(Tree<K,V> tree, K key, boolean keyGoesLeft) {
+        if (tree.isEmpty()) {
+            Cut<K,V> cut = new Cut<>();
+            cut.left = cut.right = emptyTree();
+            return cut;
+        }
+
+        Cut<K,V> cut = cut(tree.root, tree.height, key);
+        if (cut.found) {
+            if (keyGoesLeft) {
+                cut.left = join(cut.left, cut.key, cut.value, emptyTree());
+            } else {
+                cut.right = join(emptyTree(), cut.key, cut.value, cut.right);
+            }
+        }
+        return cut;
+    }
+
+    /**
+     * Each level slices its node around the path to the key, and joins the slices onto the cuts from the level below.
+     * The joins on one side grow steadily in height; so the total work is that of a single descent.
+     */
+    private Cut<K,V> cut(Node<K,V> node, int height, K key) {
+        int index = node.searchKeys(key, comparator);
+        if (index >= 0) {
+            Cut<K,V> cut = new Cut<>();
+            cut.left = tree(node.slice(generation, 0, index), height);
+            cut.right = tree(node.slice(generation, index + 1, node.numKeys), height);
+            cut.found = true;
+            cut.key = node.keyAt(index);
+            cut.value = node.valueAt(index);
+            return cut;
+        }
+
+        int insertion = -index - 1;
+        if (node.isLeaf()) {
+            Cut<K,V> cut = new Cut<>();
+            cut.left = tree(node.slice(generation, 0, insertion), height);
+            cut.right = tree(node.slice(generation, insertion, node.numKeys), height);
+            return cut;
+        }
+
+        Cut<K,V> cut = cut(node.childAt(insertion), height - 1, key);
+        if (insertion > 0) {
+            cut.left = join(tree(node.slice(generation, 0, insertion - 1), height),
+                node.keyAt(insertion - 1), node.valueAt(insertion - 1), cut.left);
+        }
+        if (insertion < node.numKeys) {
+            cut.right = join(cut.right, node.keyAt(insertion), node.valueAt(insertion),
+                tree(node.slice(generation, insertion + 1, node.numKeys), height));
+        }
+        return cut;
+    }
+
+    /**
+     * The tree of the left keys, then the right keys. Precondition: the left keys are all less than the right keys.
+     */
+    private Tree<K,V> concat(Tree<K,V> left, Tree<K,V> right) {
+        if (left.isEmpty()) {
+            return right;
+        } else if (right.isEmpty()) {
+            return left;
+        }
+
+        Node<K,V> first = right.root;
+        while (!first.isLeaf()) {
+            first = first.childAt(0);
+        }
+        Cut<K,V> rest = cut(right.root, right.height, first.keyAt(0));
+        return join(left, rest.key, rest.value, rest.right);
+    }
+
+    /**
+     * The tree of the left keys, then the given key, then the right keys; in time proportional to the difference in
+     * height. Precondition: the keys are in that order.
+     */
+    private Tree<K,V> join(Tree<K,V> left, K key, V value, Tree<K,V> right) {
+        if (left.height == right.height) {
+            if (left.isEmpty()) {
+                return new Tree<>(Node.of(generation, 1, 1, new Object[] { key }, new Object[] { value }, null), 0);
+            }
+
+            // the roots may be short of the minimum, but no longer once they are children
+            Node<K,V> root = Node.of(generation, 1, left.root.size + right.root.size + 1,
+                new Object[] { key }, new Object[] { value }, new Object[] { left.root, right.root });
+            root = root.balanceChildAt(this, 0);
+            if (root.numKeys > 0) {
+                root = root.balanceChildAt(this, 1);
+            }
+            return tree(root, left.height + 1);
+        }
+
+        Node<K,V> root;
+        int height;
+        if (left.height > right.height) {
+            root = joinOntoRight(left.root, left.height, key, value, right);
+            height = left.height;
+        } else {
+            root = joinOntoLeft(left, key, value, right.root, right.height);
+            height = right.height;
+        }
+
+        if (root.numKeys > maxKeys) {
+            root = new Node<K,V>(generation, 0, root.size, new Object[]{root})
+                .splitChildAt(this, 0, root);
+            height++;
+        }
+        return new Tree<>(root, height);
+    }
+
+    /**
+     * Join the key and the shorter right tree onto the right edge of the node. The node returned may have one key too
+     * many, for the caller to split.
+     */
+    private Node<K,V> joinOntoRight(Node<K,V> node, int height, K key, V value, Tree<K,V> right) {
+        Node<K,V> editable = node.editable(generation);
+        int last = editable.numKeys;
+
+        if (height == right.height + 1) {
+            if (right.isEmpty()) {
+                return editable.insertIntoLeafAt(this, last, key, value, abbreviate(key));
+            }
+            return editable.insertWithRightChildAt(this, last, key, value, right.root)
+                .balanceChildAt(this, last + 1);
+        }
+
+        Node<K,V> child = joinOntoRight(editable.childAt(last), height - 1, key, value, right);
+        editable.replaceChildAt(last, child);
+        editable.size = editable.numKeys + editable.sizeOfChildren(0, editable.numKeys + 1);
+        return child.numKeys > maxKeys ? editable.splitChildAt(this, last, child) : editable;
+    }
+
+    /**
+     * Join the shorter left tree and the key onto the left edge of the node. The node returned may have one key too
+     * many, for the caller to split.
+     */
+    private Node<K,V> joinOntoLeft(Tree<K,V> left, K key, V value, Node<K,V> node, int height) {
+        Node<K,V> editable = node.editable(generation);
+
+        if (height == left.height + 1) {
+            if (left.isEmpty()) {
+                return editable.insertIntoLeafAt(this, 0, key, value, abbreviate(key));
+            }
+            return editable.insertWithLeftChildAt(this, 0, key, value, left.root)
+                .balanceChildAt(this, 0);
+        }
+
+        Node<K,V> child = joinOntoLeft(left, key, value, editable.childAt(0), height - 1);
+        editable.replaceChildAt(0, child);
+        editable.size = editable.numKeys + editable.sizeOfChildren(0, editable.numKeys + 1);
+        return child.numKeys > maxKeys ? editable.splitChildAt(this, 0, child) : editable;
+    }
+
+    //endregion
+
+    //region mutations
+
+    /** Deep enough for most trees; deeper trees, or those with a narrow fanout, grow the path as they go. */
+    private static final int PATH_LENGTH_HINT = 8;
+
+    private static final Object ALWAYS_REMOVE = new Object();
+    private static final Object NOT_REMOVED = new Object();
+
+    @Override
+    public V put(K key, V value) {
+        try {
+            V old = put(key, value, /*replace=*/true);
+            refreshEditedNodes();
+            return old;
+        } finally {
+            releaseEditPath();
+        }
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        try {
+            V old = put(key, value, /*replace=*/false);
+            refreshEditedNodes();
+            return old;
+        } finally {
+            releaseEditPath();
+        }
+    }
+
+    private void releaseEditPath() {
+        if (editPath != null) {
+            Arrays.fill(editPath, null);
+        }
+    }
+
+    /**
+     * Replace the value of a key already in the map, for an entry set while iterating. Unlike {@link #put}, which
+     * splits full nodes on the way down, this leaves the shape of the tree alone; so the nodes an iterator stands on,
+     * perhaps edited in place, keep their entries where they were.
+     */
+    private V replaceValue(K key, V value) {
+        // null for the root, which has no parent
+        Node<K,V> parent = null;
+        int nodeIndex = 0;
+        Node<K,V> node = root;
+        long abbreviatedKey = abbreviate(key);
+
+        // loop invariant: parent is editable
+        for (;;) {
+            int index = node.searchKeys(key, abbreviatedKey, comparator);
+            if (index >= 0) {
+                V old = node.valueAt(index);
+                replaceChild(parent, nodeIndex, node.replaceValueAt(generation, index, value));
+                refreshEditedNodes();
+                return old;
+            }
+            if (node.isLeaf()) {
+                // removed since the entry was read
+                return put(key, value);
+            }
+
+            index = -index - 1;
+            Node<K,V> editable = node.editable(generation);
+            if (editable != node) {
+                replaceChild(parent, nodeIndex, editable);
+            }
+            parent = editable;
+            nodeIndex = index;
+            node = editable.childAt(index);
+        }
+    }
+
+    @SuppressWarnings("OverlyLongMethod"/*top down b-tree*/)
+    private V put(K key, V value, boolean replaceCurrentValue) {
+        Node<K,V>[] edge = rightEdge;
+        rightEdge = null;
+        if (edge != null && isRightEdge(edge)) {
+            Node<K,V> last = edge[edge.length - 1];
+            if (comparator.compare(key, last.keyAt(last.numKeys - 1)) > 0) {
+                appendToRightEdge(edge, key, value);
+                return null;
+            }
+        }
+
+        if (root.numKeys == maxKeys) {
+            root = new Node<K,V>(generation, 0, root.size, new Object[]{root})
+                .splitChildAt(this, 0, root);
+        }
+
+        // null for the root, which has no parent
+        Node<K,V> parent = null;
+        int nodeIndex = 0;
+        Node<K,V> node = root;
+        long abbreviatedKey = abbreviate(key);
+
+        // The editable inner nodes along the way; their sizes grow only once we know the key is new.
+        Node<K,V>[] path = editPath;
+        if (path == null) {
+            path = editPath = newNodeArray(PATH_LENGTH_HINT);
+        }
+        int depth = 0;
+        boolean rightmost = true;
+
+        // loop invariant: parent is editable
+        for (;;) {
+            int index = node.searchKeys(key, abbreviatedKey, comparator);
+
+            if (index >= 0) {
+                V val = node.valueAt(index);
+                if (replaceCurrentValue) {
+                    replaceChild(parent, nodeIndex, node.replaceValueAt(generation, index, value));
+                }
+                return val;
+            }
+
+            // The insertion point; N.B. may point _past_ the keys.
+            index = -index - 1;
+
+            if (node.isLeaf()) {
+                Node<K,V> leaf = node.insertIntoLeafAt(this, index, key, value, abbreviatedKey);
+                replaceChild(parent, nodeIndex, leaf);
+                for (int i = 0; i < depth; i++) {
+                    path[i].size++;
+                }
+                size++;
+
+                if (rightmost && index == leaf.numKeys - 1) {
+                    // an append; the next one may well be too
+                    rightEdge = Arrays.copyOf(path, depth + 1);
+                    rightEdge[depth] = leaf;
+                }
+                return null;
+            }
+
+            Node<K, V> child = node.childAt(index);
+            if (child.numKeys == maxKeys) {
+                node = node.splitChildAt(this, index, child);
+                replaceChild(parent, nodeIndex, node);
+
+                // the key location could have changed!
+                int dir = comparator.compare(key, node.keyAt(index));
+                if (dir == 0) {
+                    V val = node.valueAt(index);
+                    if (replaceCurrentValue) {
+                        replaceChild(parent, nodeIndex, node.replaceValueAt(generation, index, value));
+                    }
+                    return val;
+                } else if (dir > 0) {
+                    index++;
+                }
+                child = node.childAt(index);
+            }
+            rightmost &= index == node.numKeys;
+
+            Node<K, V> nextParent = node.editable(generation);
+            if (node.generation != generation) {
+                replaceChild(parent, nodeIndex, nextParent);
+            }
+            if (depth == path.length) {
+                path = editPath = Arrays.copyOf(path, 2 * depth);
+            }
+            path[depth++] = nextParent;
+            parent = nextParent;
+            nodeIndex = index;
+            node = child;
+        }
+    }
+
+    /** Put the child in place of the parent's child at the index; or, without a parent, in place of the root. */
+    private void replaceChild(Node<K,V> parent, int index, Node<K,V> child) {
+        if (parent == null) {
+            root = child;
+        } else {
+            parent.replaceChildAt(index, child);
+        }
+    }
+
+    /**
+     * Whether the finger still lies along the rightmost path, and every node on it is still ours to edit. Anything
+     * but an append may have moved, copied, or shared those nodes since.
+     */
+    private boolean isRightEdge(Node<K,V>[] edge) {
+        if (edge[0] != root) {
+            return false;
+        }
+        for (int level = 0; level < edge.length; level++) {
+            Node<K,V> node = edge[level];
+            if (node.generation != generation || node.numKeys == 0) {
+                return false;
+            }
+            if (level + 1 < edge.length
+                    && (node.isLeaf() || node.childAt(node.numKeys) != edge[level + 1])) {
+                return false;
+            }
+        }
+        return edge[edge.length - 1].isLeaf();
+    }
+
+    /**
+     * Put the key, which is past the last key, at the end of the last leaf; then split the nodes along the right edge
+     * which overflow, from the bottom up. No comparisons, and no copies but of the last leaf.
+     *
+     * @param edge the rightmost path from the root, every node of which is editable
+     */
+    private void appendToRightEdge(Node<K,V>[] edge, K key, V value) {
+        int height = edge.length - 1;
+        Node<K,V> leaf = edge[height];
+        Node<K,V> child = leaf.insertIntoLeafAt(this, leaf.numKeys, key, value, abbreviate(key));
+
+        // loop invariant: the child may have one key too many, for its parent to split
+        for (int level = height - 1; level >= 0; level--) {
+            Node<K,V> parent = edge[level].editable(generation);
+            parent.size++;
+            parent.replaceChildAt(parent.numKeys, child);
+            if (child.numKeys > maxKeys) {
+                parent = parent.splitChildAt(this, parent.numKeys, child);
+                child = parent.childAt(parent.numKeys);
+            }
+            edge[level + 1] = child;
+            child = parent;
+        }
+
+        if (child.numKeys > maxKeys) {
+            root = new Node<K,V>(generation, 0, child.size, new Object[]{child})
+                .splitChildAt(this, 0, child);
+
+            Node<K,V>[] taller = newNodeArray(edge.length + 1);
+            System.arraycopy(edge, 1, taller, 2, height);
+            taller[0] = root;
+            taller[1] = root.childAt(1);
+            edge = taller;
+        } else {
+            root = child;
+            edge[0] = child;
+        }
+
+        size++;
+        rightEdge = edge;
+    }
+
+    @Override
+    public V remove(Object key) {
+        V val = doRemove(key, ALWAYS_REMOVE);
+        return  val == NOT_REMOVED ? null : val;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return doRemove(key, value) != NOT_REMOVED;
+    }
+
+    /**
+     * A top-down removal: before descending into a child, the child is given more than the minimum number of keys,
+     * by rotating from a sibling or by merging with one. So the removal from the leaf never has to back up the tree.
+     */
+    @SuppressWarnings("OverlyLongMethod"/*top down b-tree*/)
+    private V doRemove(Object oKey, Object expectedValue) {
+        @SuppressWarnings("unchecked")
+        K key = (K) oKey;
+        long abbreviatedKey = abbreviate(key);
+
+        // Look before we leap; the removal copies every node on the way down, which is a waste if nothing is removed.
+        V removed;
+        Node<K,V> cur = root;
+        for (;;) {
+            int index = cur.searchKeys(key, abbreviatedKey, comparator);
+            if (index >= 0) {
+                removed = cur.valueAt(index);
+                break;
+            } else if (cur.isLeaf()) {
+                @SuppressWarnings("unchecked")
+                V notRemoved = (V) NOT_REMOVED;
+                return notRemoved;
+            } else {
+                cur = cur.childAt(-index - 1);
+            }
+        }
+
+        if (expectedValue != ALWAYS_REMOVE && !Objects.equals(expectedValue, removed)) {
+            @SuppressWarnings("unchecked")
+            V notRemoved = (V) NOT_REMOVED;
+            return notRemoved;
+        }
+
+        // null for the root, which has no parent
+        Node<K,V> parent = null;
+        int nodeIndex = 0;
+        Node<K,V> node = root.editable(generation);
+        root = node;
+
+        // loop invariant: node is editable and has the key somewhere in its subtree
+        for (;;) {
+            int index = node.searchKeys(key, abbreviatedKey, comparator);
+            if (node.isLeaf()) {
+                replaceChild(parent, nodeIndex, node.removeFromLeafAt(generation, index));
+                break;
+            }
+
+            node.size--;
+
+            int childIndex;
+            if (index >= 0) {
+                Node<K,V> left = node.childAt(index);
+                Node<K,V> right = node.childAt(index + 1);
+
+                if (left.numKeys > minKeys) {
+                    // swap in the predecessor, then go remove the predecessor instead
+                    Node<K,V> leaf = left;
+                    while (!leaf.isLeaf()) {
+                        leaf = leaf.childAt(leaf.numKeys);
+                    }
+                    key = leaf.keyAt(leaf.numKeys - 1);
+                    abbreviatedKey = abbreviate(key);
+                    node.replaceEntryAt(index, leaf, leaf.numKeys - 1);
+                    childIndex = index;
+                } else if (right.numKeys > minKeys) {
+                    // ...or the successor
+                    Node<K,V> leaf = right;
+                    while (!leaf.isLeaf()) {
+                        leaf = leaf.childAt(0);
+                    }
+                    key = leaf.keyAt(0);
+                    abbreviatedKey = abbreviate(key);
+                    node.replaceEntryAt(index, leaf, 0);
+                    childIndex = index + 1;
+                } else {
+                    // how very unlucky. We'll have to push the key down into a merged node.
+                    node = node.mergeChildrenAt(this, index, index, left, right);
+                    childIndex = index;
+                }
+            } else {
+                childIndex = -index - 1;
+                if (node.childAt(childIndex).numKeys == minKeys) {
+                    node = node.mergeChildAt(this, childIndex);
+
+                    // the child may have merged with its left sibling
+                    childIndex = -node.searchKeys(key, abbreviatedKey, comparator) - 1;
+                }
+            }
+
+            Node<K,V> child = node.childAt(childIndex).editable(generation);
+            node.replaceChildAt(childIndex, child);
+
+            parent = node;
+            nodeIndex = childIndex;
+            node = child;
+        }
+
+        size--;
+        root = root.squash();
+        refreshEditedNodes();
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        root = emptyNode();
+        size = 0;
+        rightEdge = null;
+    }
+
+    @Override
+    public CowTreeMap<K, V> fork() {
+        // the finger's nodes are the fork's too now; so no longer ours to edit
+        rightEdge = null;
+        return new CowTreeMap<>(++generation, size, root, comparator, fanout(), aggregation, abbreviator);
+    }
+
+    /**
+     * A fork; which, when compacting, is {@linkplain #compact() compacted} before it is returned. This map is left as
+     * it was.
+     */
+    @Beta
+    public CowTreeMap<K, V> fork(boolean compacting) {
+        CowTreeMap<K,V> fork = fork();
+        if (compacting) {
+            fork.compact();
+        }
+        return fork;
+    }
+
+    /**
+     * Repack the entries into full nodes, as {@link #fromSorted(Comparator, Iterator)} would; in one pass, in
+     * {@code O(n)} time, without comparing keys. Random puts and removes leave nodes anywhere from half to completely
+     * full, so this may save up to half the memory of the nodes, and scans read fewer of them. It suits a map that
+     * will be kept a long while and read much more than written: the next put into a full node has to split it, and
+     * none of the new nodes are shared with forks of this map.
+     */
+    @Beta
+    public void compact() {
+        BulkLoader<K,V> loader = new BulkLoader<>(generation, comparator, minKeys, maxKeys);
+        forEach(root, loader::append);
+
+        root = loader.finish();
+        rightEdge = null;
+        refreshNodes();
     }
 
     //endregion
@@ -1,9 +1,20 @@
 package com.github.grignaak.collections;
 
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.SortedSet;
+import java.util.function.Consumer;
+import javax.annotation.Nonnull;
 
-public class CowTreeSet<T> extends AbstractMapBackedSet<T> implements CowSet<T> {
+/**
+ * A sorted set on a {@link CowTreeMap}. Navigation takes {@code O(log n)} time; and iteration, of the whole set or of
+ * any range of it, walks the tree's nodes without allocating for each element.
+ */
+public class CowTreeSet<T> extends AbstractMapBackedSet<T> implements CowSet<T>, NavigableSet<T> {
     private final CowTreeMap<T, Boolean> impl;
+    private final NavigableSet<T> keys;
 
     public CowTreeSet(Comparator<T> comparator) {
         this(new CowTreeMap<>(comparator));
@@ -11,6 +22,7 @@ public class CowTreeSet<T> extends AbstractMapBackedSet<T> implements CowSet<T>
 
     private CowTreeSet(CowTreeMap<T, Boolean> impl) {
         this.impl = impl;
+        this.keys = impl.navigableKeySet();
     }
 
     @Override
@@ -18,6 +30,173 @@ public class CowTreeSet<T> extends AbstractMapBackedSet<T> implements CowSet<T>
         return impl;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>When the other set is a {@code CowTreeSet} with the same comparator, the two are merged as in
+     * {@link CowTreeMap#union(CowTreeMap)}: whatever subtrees the sets share are passed over whole.</p>
+     */
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        CowTreeMap<T, Boolean> other = sameOrderMapOf(c);
+        return other == null ? super.addAll(c) : impl.union(other);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>When the other set is a {@code CowTreeSet} with the same comparator, the two are merged as in
+     * {@link CowTreeMap#intersect(CowTreeMap)}.</p>
+     */
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        CowTreeMap<T, Boolean> other = sameOrderMapOf(c);
+        return other == null ? super.retainAll(c) : impl.intersect(other);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>When the other set is a {@code CowTreeSet} with the same comparator, the two are merged as in
+     * {@link CowTreeMap#subtract(CowTreeMap)}.</p>
+     */
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        CowTreeMap<T, Boolean> other = sameOrderMapOf(c);
+        return other == null ? super.removeAll(c) : impl.subtract(other);
+    }
+
+    /**
+     * The map backing the collection, if a tree set in the same order as this; else null.
+     */
+    private CowTreeMap<T, Boolean> sameOrderMapOf(Collection<?> c) {
+        if (c instanceof CowTreeSet<?> && ((CowTreeSet<?>) c).impl.comparator().equals(impl.comparator())) {
+            @SuppressWarnings("unchecked")
+            CowTreeMap<T, Boolean> other = ((CowTreeSet<T>) c).impl;
+            return other;
+        }
+        return null;
+    }
+
+    @Override
+    public void forEach(Consumer<? super T> action) {
+        impl.forEachKey(action);
+    }
+
+    @Override @Nonnull
+    public Iterator<T> iterator() {
+        return keys.iterator();
+    }
+
+    //region NavigableSet
+
+    @Override
+    public Comparator<? super T> comparator() {
+        return impl.comparator();
+    }
+
+    @Override
+    public T first() {
+        return impl.firstKey();
+    }
+
+    @Override
+    public T last() {
+        return impl.lastKey();
+    }
+
+    @Override
+    public T lower(T t) {
+        return impl.lowerKey(t);
+    }
+
+    @Override
+    public T floor(T t) {
+        return impl.floorKey(t);
+    }
+
+    @Override
+    public T ceiling(T t) {
+        return impl.ceilingKey(t);
+    }
+
+    @Override
+    public T higher(T t) {
+        return impl.higherKey(t);
+    }
+
+    @Override
+    public T pollFirst() {
+        return keys.pollFirst();
+    }
+
+    @Override
+    public T pollLast() {
+        return keys.pollLast();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The view is live, but not itself copy-on-write; fork this set to get an independent copy.</p>
+     */
+    @Override
+    public NavigableSet<T> descendingSet() {
+        return keys.descendingSet();
+    }
+
+    @Override @Nonnull
+    public Iterator<T> descendingIterator() {
+        return keys.descendingIterator();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The view is live, but not itself copy-on-write; fork this set to get an independent copy.</p>
+     */
+    @Override
+    public NavigableSet<T> subSet(T fromElement, boolean fromInclusive, T toElement, boolean toInclusive) {
+        return keys.subSet(fromElement, fromInclusive, toElement, toInclusive);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The view is live, but not itself copy-on-write; fork this set to get an independent copy.</p>
+     */
+    @Override
+    public NavigableSet<T> headSet(T toElement, boolean inclusive) {
+        return keys.headSet(toElement, inclusive);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The view is live, but not itself copy-on-write; fork this set to get an independent copy.</p>
+     */
+    @Override
+    public NavigableSet<T> tailSet(T fromElement, boolean inclusive) {
+        return keys.tailSet(fromElement, inclusive);
+    }
+
+    @Override @Nonnull
+    public SortedSet<T> subSet(T fromElement, T toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override @Nonnull
+    public SortedSet<T> headSet(T toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override @Nonnull
+    public SortedSet<T> tailSet(T fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    //endregion
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,203 @@
+package com.github.grignaak.collections;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.Set;
+import javax.annotation.Nonnull;
+
+/**
+ * The reverse-ordered view of a navigable map. Every operation is the mirror image of one on the underlying map.
+ */
+final class DescendingCowMap<K,V> extends AbstractMap<K,V> implements CowNavigableMap<K,V> {
+    private final CowNavigableMap<K,V> m;
+
+    DescendingCowMap(CowNavigableMap<K, V> m) {
+        this.m = m;
+    }
+
+    @Override
+    public CowNavigableMap<K, V> fork() {
+        return m.fork().descendingMap();
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return Collections.reverseOrder(m.comparator());
+    }
+
+    //region Map
+
+    @Override
+    public int size() {
+        return m.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return m.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return m.containsKey(key);
+    }
+
+    @Override
+    public V get(Object key) {
+        return m.get(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return m.put(key, value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return m.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        m.clear();
+    }
+
+    @Override @Nonnull
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override @Nonnull
+            public Iterator<Entry<K, V>> iterator() {
+                return m.descendingEntries().iterator();
+            }
+
+            @Override
+            public int size() {
+                return m.size();
+            }
+        };
+    }
+
+    @Override @Nonnull
+    public Set<K> keySet() {
+        return navigableKeySet();
+    }
+
+    //endregion
+
+    //region OrderedMap
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries() {
+        return m.entrySet();
+    }
+
+    //endregion
+
+    //region NavigableMap
+
+    @Override
+    public Entry<K, V> lowerEntry(K key) {
+        return m.higherEntry(key);
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return m.higherKey(key);
+    }
+
+    @Override
+    public Entry<K, V> floorEntry(K key) {
+        return m.ceilingEntry(key);
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return m.ceilingKey(key);
+    }
+
+    @Override
+    public Entry<K, V> ceilingEntry(K key) {
+        return m.floorEntry(key);
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return m.floorKey(key);
+    }
+
+    @Override
+    public Entry<K, V> higherEntry(K key) {
+        return m.lowerEntry(key);
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return m.lowerKey(key);
+    }
+
+    @Override
+    public Entry<K, V> firstEntry() {
+        return m.lastEntry();
+    }
+
+    @Override
+    public Entry<K, V> lastEntry() {
+        return m.firstEntry();
+    }
+
+    @Override
+    public Entry<K, V> pollFirstEntry() {
+        return m.pollLastEntry();
+    }
+
+    @Override
+    public Entry<K, V> pollLastEntry() {
+        return m.pollFirstEntry();
+    }
+
+    @Override
+    public K firstKey() {
+        return m.lastKey();
+    }
+
+    @Override
+    public K lastKey() {
+        return m.firstKey();
+    }
+
+    @Override
+    public CowNavigableMap<K, V> descendingMap() {
+        return m;
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        return m.navigableKeySet().descendingSet();
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return m.navigableKeySet();
+    }
+
+    @Override
+    public CowNavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return m.subMap(toKey, toInclusive, fromKey, fromInclusive).descendingMap();
+    }
+
+    @Override
+    public CowNavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        return m.tailMap(toKey, inclusive).descendingMap();
+    }
+
+    @Override
+    public CowNavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        return m.headMap(fromKey, inclusive).descendingMap();
+    }
+
+    //endregion
+}
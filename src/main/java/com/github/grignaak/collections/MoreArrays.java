@@ -64,6 +64,16 @@ class MoreArrays {
         return dst;
     }
 
+    public static long[] arrayCopyAndInsert(long[] src, int index, long value) {
+        long[] dst = new long[src.length + 1];
+
+        System.arraycopy(src, 0, dst, 0, index);
+        dst[index] = value;
+        System.arraycopy(src, index, dst, index+1, src.length - index);
+
+        return dst;
+    }
+
     public static Object[] arrayCopyAndRemove(Object[] src, int index) {
         Object[] dst = new Object[src.length - 1];
 
@@ -84,6 +94,16 @@ class MoreArrays {
         return dst;
     }
 
+    public static long[] arrayCopyAndRemove(long[] src, int index) {
+        long[] dst = new long[src.length - 1];
+
+        int indexAfter = index + 1;
+        System.arraycopy(src, 0, dst, 0, index);
+        System.arraycopy(src, indexAfter, dst, index, src.length - (indexAfter));
+
+        return dst;
+    }
+
     public static Object[] arrayCopyAndRemovePair(Object[] src, int index) {
         Object[] dst = new Object[src.length - 2];
 
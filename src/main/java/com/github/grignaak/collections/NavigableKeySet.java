@@ -0,0 +1,179 @@
+package com.github.grignaak.collections;
+
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+
+/**
+ * The live key set of a navigable map.
+ */
+final class NavigableKeySet<K> extends AbstractSet<K> implements NavigableSet<K> {
+    private final NavigableMap<K,?> m;
+    /** The map's own iterators of its keys alone, if it has them; else null, to iterate its entries. */
+    private final Supplier<Iterator<K>> keys;
+    private final Supplier<Iterator<K>> descendingKeys;
+
+    NavigableKeySet(NavigableMap<K, ?> m, Supplier<Iterator<K>> keys, Supplier<Iterator<K>> descendingKeys) {
+        this.m = m;
+        this.keys = keys;
+        this.descendingKeys = descendingKeys;
+    }
+
+    @Override @Nonnull
+    public Iterator<K> iterator() {
+        if (keys != null) {
+            return keys.get();
+        }
+
+        Iterator<? extends Entry<K, ?>> entries = m.entrySet().iterator();
+        return new Iterator<K>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public K next() {
+                return entries.next().getKey();
+            }
+
+            @Override
+            public void remove() {
+                entries.remove();
+            }
+        };
+    }
+
+    @Override @Nonnull
+    public Iterator<K> descendingIterator() {
+        return descendingKeys != null ? descendingKeys.get() : descendingSet().iterator();
+    }
+
+    @Override
+    public Spliterator<K> spliterator() {
+        if (m instanceof CowTreeMap<?,?>) {
+            @SuppressWarnings("unchecked")
+            CowTreeMap<K,?> tree = (CowTreeMap<K, ?>) m;
+            return tree.keySpliterator();
+        }
+        return super.spliterator();
+    }
+
+    @Override
+    public int size() {
+        return m.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return m.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return m.containsKey(o);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!m.containsKey(o)) {
+            return false;
+        }
+        m.remove(o);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        m.clear();
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return m.comparator();
+    }
+
+    @Override
+    public K lower(K k) {
+        return m.lowerKey(k);
+    }
+
+    @Override
+    public K floor(K k) {
+        return m.floorKey(k);
+    }
+
+    @Override
+    public K ceiling(K k) {
+        return m.ceilingKey(k);
+    }
+
+    @Override
+    public K higher(K k) {
+        return m.higherKey(k);
+    }
+
+    @Override
+    public K first() {
+        return m.firstKey();
+    }
+
+    @Override
+    public K last() {
+        return m.lastKey();
+    }
+
+    @Override
+    public K pollFirst() {
+        Entry<K, ?> entry = m.pollFirstEntry();
+        return entry == null ? null : entry.getKey();
+    }
+
+    @Override
+    public K pollLast() {
+        Entry<K, ?> entry = m.pollLastEntry();
+        return entry == null ? null : entry.getKey();
+    }
+
+    @Override
+    public NavigableSet<K> descendingSet() {
+        return new NavigableKeySet<>(m.descendingMap(), descendingKeys, keys);
+    }
+
+    @Override
+    public NavigableSet<K> subSet(K fromElement, boolean fromInclusive, K toElement, boolean toInclusive) {
+        return m.subMap(fromElement, fromInclusive, toElement, toInclusive).navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+        return m.headMap(toElement, inclusive).navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+        return m.tailMap(fromElement, inclusive).navigableKeySet();
+    }
+
+    @Override @Nonnull
+    public SortedSet<K> subSet(K fromElement, K toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override @Nonnull
+    public SortedSet<K> headSet(K toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override @Nonnull
+    public SortedSet<K> tailSet(K fromElement) {
+        return tailSet(fromElement, true);
+    }
+}
@@ -0,0 +1,137 @@
+package com.github.grignaak.collections;
+
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class CombiningWriterTest {
+
+    private final CombiningWriter<Integer, Integer> writer = new CombiningWriter<>(new CowHashMap<>(), 4);
+
+    @Test
+    public void singleWriterSeesItsOwnWrites() {
+        assertThat(writer.put(1, 10), nullValue());
+        assertThat(writer.put(1, 11), is(10));
+        assertThat(writer.snapshot(), hasEntry(1, 11));
+
+        assertThat(writer.remove(1), is(11));
+        assertThat(writer.snapshot().containsKey(1), is(false));
+    }
+
+    @Test
+    public void snapshotsAreIndependentOfLaterWrites() {
+        writer.put(1, 10);
+        CowMap<Integer, Integer> before = writer.snapshot();
+
+        writer.put(2, 20);
+        before.put(3, 30);
+
+        assertThat(before, not(hasEntry(2, 20)));
+        assertThat(writer.snapshot(), not(hasEntry(3, 30)));
+        assertThat(writer.snapshot(), hasEntry(2, 20));
+    }
+
+    @Test
+    public void contendedWritersAllLand() throws InterruptedException {
+        // more threads than slots, so some writers fall back to the lock
+        int threads = 8;
+        int perThread = 2000;
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                for (int i = base; i < base + perThread; i++) {
+                    writer.put(i, i);
+                    if (i % 3 == 0) {
+                        writer.remove(i);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < threads * perThread; i++) {
+            if (i % 3 != 0) expected.put(i, i);
+        }
+        assertThat(writer.snapshot(), is(expected));
+    }
+
+    @Test
+    public void failedWriteThrowsInItsOwnWriterOnly() throws InterruptedException {
+        Comparator<Integer> nonNegative = (a, b) -> {
+            if (a < 0 || b < 0) throw new IllegalArgumentException("negative key");
+            return Integer.compare(a, b);
+        };
+        CowTreeMap<Integer, Integer> map = new CowTreeMap<>(nonNegative);
+        map.put(0, 0);
+        CombiningWriter<Integer, Integer> writer = new CombiningWriter<>(map, 4);
+
+        int threads = 8;
+        int perThread = 2000;
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                for (int i = base; i < base + perThread; i++) {
+                    if (i % 10 == 0) {
+                        try {
+                            writer.put(-i - 1, i);
+                        } catch (IllegalArgumentException expected) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    writer.put(i, i);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(30_000);
+            assertThat("writer stuck", worker.isAlive(), is(false));
+        }
+
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < threads * perThread; i++) {
+            expected.put(i, i);
+        }
+        assertThat(failures.get(), is(threads * perThread / 10));
+        assertThat(writer.snapshot(), is(expected));
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.grignaak.collections;
+
+import static org.hamcrest.Matchers.is;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.ExpectedException;
+
+public class CowAggregatingTreeMapTest {
+    @Rule public final ErrorCollector asserts = new ErrorCollector();
+    @Rule public final ExpectedException thrown = ExpectedException.none();
+
+    /** Not commutative; so the aggregates also show that values are combined in key order. */
+    private static final Aggregation<String, String> CONCAT = Aggregation.of("", String::concat, v -> v);
+
+    private final CowAggregatingTreeMap<Integer, String, String> b =
+        new CowAggregatingTreeMap<>(Comparator.<Integer>naturalOrder(), 8, CONCAT);
+
+    @Test
+    public void aggregateEmptyMap() {
+        asserts.checkThat(b.aggregate(), is(""));
+        asserts.checkThat(b.aggregate(0, 100), is(""));
+    }
+
+    @Test
+    public void aggregateRangesAsTheyChange() {
+        Random random = new Random(42);
+        TreeMap<Integer, String> expected = new TreeMap<>();
+
+        for (int i = 0; i < 5_000; i++) {
+            int key = random.nextInt(500);
+            if (random.nextInt(3) == 0) {
+                b.remove(key);
+                expected.remove(key);
+            } else {
+                String value = Integer.toString(i, 36) + ",";
+                b.put(key, value);
+                expected.put(key, value);
+            }
+
+            if (i % 100 == 0) {
+                asserts.checkThat(b.aggregate(), is(concat(expected, -1, 500)));
+                for (int from = -1; from < 500; from += 47) {
+                    asserts.checkThat(b.aggregate(from, from + 123), is(concat(expected, from, from + 123)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void forkKeepsItsAggregates() {
+        for (int i = 0; i < 100; i++) {
+            b.put(i, "a");
+        }
+
+        CowAggregatingTreeMap<Integer, String, String> fork = b.fork();
+        fork.removeRange(10, 90);
+        b.put(50, "b");
+
+        asserts.checkThat(b.aggregate(49, 52), is("aba"));
+        asserts.checkThat(fork.aggregate(), is(repeat("a", 20)));
+        asserts.checkThat(fork.aggregate(5, true, 90, true), is(repeat("a", 6)));
+    }
+
+    @Test
+    public void splitAndJoinKeepAggregates() {
+        for (int i = 0; i < 100; i++) {
+            b.put(i, i < 60 ? "a" : "b");
+        }
+
+        CowAggregatingTreeMap<Integer, String, String> above = b.split(60);
+        asserts.checkThat(b.aggregate(), is(repeat("a", 60)));
+        asserts.checkThat(above.aggregate(), is(repeat("b", 40)));
+
+        b.join(above);
+        asserts.checkThat(b.aggregate(55, 65), is(repeat("a", 5) + repeat("b", 5)));
+    }
+
+    @Test
+    public void joinRejectsAnotherAggregation() {
+        CowAggregatingTreeMap<Integer, String, String> other =
+            new CowAggregatingTreeMap<>(Comparator.<Integer>naturalOrder(), 8, Aggregation.of("", String::concat, v -> v));
+        other.put(1, "a");
+
+        thrown.expect(IllegalArgumentException.class);
+        b.join(other);
+    }
+
+    private static String concat(TreeMap<Integer, String> map, int fromKey, int toKey) {
+        StringBuilder str = new StringBuilder();
+        map.subMap(fromKey, toKey).values().forEach(str::append);
+        return str.toString();
+    }
+
+    private static String repeat(String str, int times) {
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            repeated.append(str);
+        }
+        return repeated.toString();
+    }
+}
@@ -5,12 +5,16 @@ import org.junit.Test;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertEquals;
 
@@ -41,6 +45,32 @@ public class CowCollectorsTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void testToCowMap() {
+        List<String> words = Arrays.asList("apple", "avocado", "banana", "blueberry", "cherry");
+
+        final Map<Character, String> expected = new HashMap<>();
+        expected.put('a', "avocado");
+        expected.put('b', "blueberry");
+        expected.put('c', "cherry");
+
+        CowMap<Character, String> actual = words.stream()
+                .collect(CowCollectors.toCowMap(word -> word.charAt(0), Function.identity()));
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testToCowMapInParallel() {
+        final Map<Integer, Integer> expected = IntStream.range(0, 100_000).boxed()
+                .collect(Collectors.toMap(i -> i % 60_000, i -> i, (first, last) -> last));
+
+        CowMap<Integer, Integer> actual = IntStream.range(0, 100_000).boxed().parallel()
+                .collect(CowCollectors.toCowMap(i -> i % 60_000, i -> i));
+
+        assertEquals(expected, actual);
+    }
+
     @Test
     public void testToOrderedCowSet() {
         Collection<Integer> numbers = Arrays.asList(5, 4, 3, 3, -2, -1, 2, 2, -1, 4, 5);
@@ -16,6 +16,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.Set;
 
 import org.hamcrest.Matcher;
@@ -703,6 +704,249 @@ public class CowHashMapTest {
         assertThat(b.hashCode(), is(c.hashCode()));
     }
 
+    @Test
+    public void getAllMatchesGet() {
+        CowHashMap<Object, Integer> map = new CowHashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            map.put(i, i);
+        }
+        // collisions and deep paths too
+        Hasher A = new Hasher(0), B = new Hasher(0), C = new Hasher(0b00001_00000);
+        map.put(A, -1);
+        map.put(B, -2);
+        map.put(C, -3);
+
+        Object[] keys = { 7, A, "absent", 4999, B, 7, new Hasher(0), C, null, 5000 };
+        Integer[] out = new Integer[keys.length];
+
+        int found = map.getAll(keys, out);
+
+        checkThat(found, is(6));
+        for (int i = 0; i < keys.length; i++) {
+            checkThat(out[i], is(map.get(keys[i])));
+        }
+
+        checkThat(map.containsAll(new Object[] { 1, 2, A, C }), is(true));
+        checkThat(map.containsAll(new Object[] { 1, 2, "absent" }), is(false));
+        checkThat(map.containsAll(new Object[0]), is(true));
+    }
+
+    @Test
+    public void getAllOnEmptyMap() {
+        CowHashMap<Object, Integer> map = new CowHashMap<>();
+        Integer[] out = { 1, 2 };
+
+        checkThat(map.getAll(new Object[] { "a", null }, out), is(0));
+        checkThat(out[0], nullValue());
+        checkThat(out[1], nullValue());
+    }
+
+    /**
+     * <code><pre>
+     * [ N ]
+     *    \
+     *     HCN(A B)
+     * </pre></code>
+     *
+     * then C shares A and B's first two branches, so becomes
+     *
+     * <code><pre>
+     * [ N ]
+     *    \
+     *     [ N ]
+     *        \
+     *         [ k v | N ]
+     *                  \
+     *                   HCN(A B)
+     * </pre></code>
+     */
+    @Test
+    public void collisionNodeCanSinkBelowNewKey() {
+        Hasher A = new Hasher(0b00000_00000_00111),
+               B = new Hasher(0b00000_00000_00111),
+               C = new Hasher(0b00001_00000_00111);
+
+        b.put(A, 1);
+        b.put(B, 2);
+        b.put(C, 3);
+
+        checkThat(b.size(), is(3));
+        checkThat(copyKeys(b).size(), is(3));
+        checkThat(b, hasEntry(A, 1));
+        checkThat(b, hasEntry(B, 2));
+        checkThat(b, hasEntry(C, 3));
+    }
+
+    @Test
+    public void applyBatchMatchesOneAtATime() {
+        Random random = new Random(28);
+        CowHashMap<Object, Integer> batched = new CowHashMap<>();
+        CowHashMap<Object, Integer> expected = new CowHashMap<>();
+
+        for (int round = 0; round < 20; round++) {
+            CowHashMap<Object, Integer> before = batched.fork();
+            Map<Object, Integer> beforeContents = new HashMap<>(before);
+
+            CowHashMap.Batch<Object, Integer> batch = new CowHashMap.Batch<>();
+            int inserted = 0, replaced = 0, removed = 0;
+            for (int i = 0; i < 500; i++) {
+                // few enough keys, some with colliding hashes, that puts and removes hit the same keys
+                Object key = random.nextInt(8) == 0 ? collider(random.nextInt(4)) : random.nextInt(2000);
+                if (random.nextInt(3) == 0) {
+                    batch.remove(key);
+                    if (expected.containsKey(key)) removed++;
+                    expected.remove(key);
+                } else {
+                    batch.put(key, i);
+                    if (expected.containsKey(key)) replaced++; else inserted++;
+                    expected.put(key, i);
+                }
+            }
+
+            CowHashMap.BatchSummary summary = batched.applyBatch(batch);
+
+            assertThat(summary.inserted(), is(inserted));
+            assertThat(summary.replaced(), is(replaced));
+            assertThat(summary.removed(), is(removed));
+            assertThat(batched.size(), is(expected.size()));
+            assertThat(batched, is(expected));
+            assertThat(before, is(beforeContents));
+        }
+    }
+
+    @Test
+    public void applyBatchCanEmptyTheMap() {
+        CowHashMap<Object, Integer> map = new CowHashMap<>();
+        CowHashMap.Batch<Object, Integer> batch = new CowHashMap.Batch<>();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, i);
+            batch.remove(i);
+        }
+        map.put(collider(0), 0);
+        map.put(collider(1), 1);
+        batch.remove(collider(0)).remove(collider(1));
+
+        assertThat(map.applyBatch(batch).removed(), is(102));
+        assertThat(map.size(), is(0));
+        assertThat(map, is(new CowHashMap<>()));
+    }
+
+    @Test
+    public void parallelCopyOfMatchesSource() {
+        Map<Object, Integer> source = new HashMap<>();
+        for (int i = 0; i < 50_000; i++) {
+            source.put(i * 31, i);
+        }
+        source.put(collider(0), -1);
+        source.put(collider(1), -2);
+        source.put(null, -3);
+
+        CowHashMap<Object, Integer> copy = CowHashMap.parallelCopyOf(source);
+        CowHashMap<Object, Integer> sequential = new CowHashMap<>();
+        sequential.putAll(source);
+
+        assertThat(copy.size(), is(source.size()));
+        assertThat(copy, is(source));
+        assertThat(copy.root, is(sequential.root));
+    }
+
+    @Test
+    public void parallelPutAllLeavesForksAlone() {
+        CowHashMap<Object, Integer> map = new CowHashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            map.put(i, i);
+        }
+        CowHashMap<Object, Integer> before = map.fork();
+
+        Map<Object, Integer> update = new HashMap<>();
+        for (int i = 10_000; i < 40_000; i++) {
+            update.put(i, -i);
+        }
+        map.parallelPutAll(update);
+
+        Map<Object, Integer> expected = new HashMap<>(before);
+        expected.putAll(update);
+
+        assertThat(map.size(), is(40_000));
+        assertThat(map, is(expected));
+        assertThat(before.size(), is(20_000));
+        assertThat(before.get(15_000), is(15_000));
+    }
+
+    @Test
+    public void smallMapsPromoteToATrieAndStayForkable() {
+        CowHashMap<Object, Integer> map = new CowHashMap<>();
+        Map<Object, Integer> expected = new HashMap<>();
+        for (int i = 0; i < CowHashMap.FLAT_MAX_ENTRIES; i++) {
+            map.put(i, i);
+            expected.put(i, i);
+        }
+        map.put(2, -2);
+        expected.put(2, -2);
+        map.remove(5);
+        expected.remove(5);
+        map.put(5, 5);
+        expected.put(5, 5);
+
+        assertTrue(map.root instanceof CowHashMap.FlatNode<?,?>);
+        assertThat(map, is(expected));
+
+        CowHashMap<Object, Integer> small = map.fork();
+        map.put(null, -2);
+        map.put(3, -3);
+
+        assertTrue(map.root instanceof CowHashMap.BitmapIndexNode<?,?>);
+        assertThat(map.size(), is(CowHashMap.FLAT_MAX_ENTRIES + 1));
+        assertThat(map.get(null), is(-2));
+        assertThat(map.get(3), is(-3));
+        assertThat(small, is(expected));
+
+        // a trie and a flat node with the same entries are still equal maps
+        map.remove(null);
+        map.put(3, 3);
+        assertThat(map, is(small));
+        assertThat(small, is(map));
+        assertThat(map.hashCode(), is(small.hashCode()));
+    }
+
+    private static final Hasher[] COLLIDERS = { new Hasher(7), new Hasher(7), new Hasher(7 | 1 << 10), new Hasher(7) };
+    private static Hasher collider(int i) {
+        return COLLIDERS[i];
+    }
+
+    @Test
+    public void nodesGrowInPlaceAndForksKeepTheirs() {
+        CowHashMap<Object, Integer> map = new CowHashMap<>();
+        Map<Object, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(key), is(expected.remove(key)));
+            } else {
+                assertThat(map.put(key, i), is(expected.put(key, i)));
+            }
+
+            if (i % 2_000 == 0) {
+                // scribble over the original; the fork carries on
+                CowHashMap<Object, Integer> fork = map.fork();
+                for (int j = 0; j < 100; j++) {
+                    map.put(random.nextInt(5_000), -j);
+                    map.remove(random.nextInt(5_000));
+                }
+                map = fork;
+                assertThat(map, is(expected));
+            }
+        }
+        assertThat(map, is(expected));
+
+        // a copy trimmed of its spare room is still equal, node for node
+        CowHashMap<Object, Integer> fork = map.fork();
+        fork.put(-1, -1);
+        fork.remove(-1);
+        assertThat(fork.root, is(map.root));
+    }
+
     private void checkFails(String description, Runnable block) {
         try {
             block.run();
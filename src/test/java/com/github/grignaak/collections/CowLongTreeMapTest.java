@@ -0,0 +1,116 @@
+package com.github.grignaak.collections;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.ExpectedException;
+
+public class CowLongTreeMapTest {
+    @Rule public final ErrorCollector asserts = new ErrorCollector();
+    @Rule public final ExpectedException thrown = ExpectedException.none();
+
+    private final CowLongTreeMap<String> b = new CowLongTreeMap<>();
+
+    @Test
+    public void actOnEmptyMap() {
+        asserts.checkThat(b.size(), is(0));
+        asserts.checkThat(b.remove(1L), nullValue());
+        asserts.checkThat(b.containsKey(1L), is(false));
+        asserts.checkThat(b.get(1L), nullValue());
+        asserts.checkThat(b.get("1"), nullValue());
+
+        thrown.expect(NoSuchElementException.class);
+        b.firstKey();
+    }
+
+    @Test
+    public void actsLikeATreeMap() {
+        Random random = new Random(42);
+        TreeMap<Long, String> expected = new TreeMap<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            long key = random.nextInt(2_000) - 1_000;
+            String value = "v" + i;
+            if (random.nextInt(3) == 0) {
+                asserts.checkThat(b.remove(key), is(expected.remove(key)));
+            } else {
+                asserts.checkThat(b.put(key, value), is(expected.put(key, value)));
+            }
+        }
+
+        asserts.checkThat(b.size(), is(expected.size()));
+        asserts.checkThat(b, is(expected));
+        asserts.checkThat(b.firstKey(), is(expected.firstKey()));
+        asserts.checkThat(b.lastKey(), is(expected.lastKey()));
+
+        for (long key = -1_002; key <= 1_002; key += 37) {
+            asserts.checkThat(keys(b.ascendingEntriesAfter(key)),
+                is(new ArrayList<>(expected.tailMap(key, false).keySet())));
+            asserts.checkThat(keys(b.descendingEntriesBefore(key)),
+                is(new ArrayList<>(expected.headMap(key, false).descendingKeySet())));
+
+            List<Long> inRange = new ArrayList<>();
+            b.forEachInRange(key, key + 100, (k, v) -> inRange.add(k));
+            asserts.checkThat(inRange, is(new ArrayList<>(expected.subMap(key, key + 100).keySet())));
+        }
+    }
+
+    @Test
+    public void forkIsIndependent() {
+        for (long i = 0; i < 1_000; i++) {
+            b.put(i, "a" + i);
+        }
+
+        CowLongTreeMap<String> fork = b.fork();
+        for (long i = 0; i < 1_000; i += 2) {
+            fork.remove(i);
+            b.put(i, "b" + i);
+        }
+
+        asserts.checkThat(b.size(), is(1_000));
+        asserts.checkThat(fork.size(), is(500));
+        for (long i = 0; i < 1_000; i++) {
+            asserts.checkThat(b.get(i), is((i % 2 == 0 ? "b" : "a") + i));
+            asserts.checkThat(fork.get(i), is(i % 2 == 0 ? null : "a" + i));
+        }
+    }
+
+    @Test
+    public void iteratorRemovesAsItGoes() {
+        for (long i = 0; i < 1_000; i++) {
+            b.put(i, "a" + i);
+        }
+
+        Iterator<Entry<Long, String>> it = b.entrySet().iterator();
+        long expectedKey = 0;
+        while (it.hasNext()) {
+            asserts.checkThat(it.next().getKey(), is(expectedKey++));
+            if (expectedKey % 3 != 0) {
+                it.remove();
+            }
+        }
+
+        asserts.checkThat(expectedKey, is(1_000L));
+        asserts.checkThat(b.size(), is(333));
+        asserts.checkThat(b.firstKey(), is(2L));
+    }
+
+    private static List<Long> keys(Iterable<Entry<Long, String>> entries) {
+        List<Long> keys = new ArrayList<>();
+        for (Entry<Long, String> entry : entries) {
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+}
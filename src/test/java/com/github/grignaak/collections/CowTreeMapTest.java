@@ -9,6 +9,7 @@ import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assume.assumeThat;
 
+import java.lang.ref.WeakReference;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -17,7 +18,13 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiFunction;
 import java.util.stream.IntStream;
 
 import org.junit.Rule;
@@ -330,4 +337,871 @@ public class CowTreeMapTest {
 
         assertThat(b, is(check));
     }
+
+    @Test
+    public void removeFromDeepTreeLeavesForksAlone() {
+        CowTreeMap<Integer, Integer> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder());
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        Random random = new Random(31);
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(50_000);
+            map.put(key, i);
+            expected.put(key, i);
+        }
+
+        CowTreeMap<Integer, Integer> fork = map.fork();
+        TreeMap<Integer, Integer> forkExpected = new TreeMap<>(expected);
+
+        for (int i = 0; i < 40_000; i++) {
+            int key = random.nextInt(50_000);
+            asserts.checkThat(map.remove(key), is(expected.remove(key)));
+        }
+        asserts.checkThat(map.remove(forkExpected.firstKey(), "not the value"), is(false));
+
+        assertThat(map, is(expected));
+        assertThat(fork, is(forkExpected));
+    }
+
+    @Test
+    public void orderStatistics() {
+        CowTreeMap<Integer, Integer> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder());
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        Random random = new Random(17);
+        for (int i = 0; i < 10_000; i++) {
+            int key = random.nextInt(20_000);
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+        }
+
+        List<Integer> keys = new ArrayList<>(expected.keySet());
+        for (int i = 0; i < keys.size(); i++) {
+            Integer key = keys.get(i);
+            Map.Entry<Integer, Integer> entry = map.getEntryAt(i);
+            asserts.checkThat(entry.getKey(), is(key));
+            asserts.checkThat(entry.getValue(), is(expected.get(key)));
+        }
+        for (int key = -1; key <= 20_000; key += 7) {
+            asserts.checkThat(map.indexOf(key), is(Collections.binarySearch(keys, key)));
+            asserts.checkThat(map.countRange(key, key + 500), is(expected.subMap(key, key + 500).size()));
+        }
+        asserts.checkThat(map.countRange(5, 5), is(0));
+
+        thrown.expect(IndexOutOfBoundsException.class);
+        map.getEntryAt(keys.size());
+    }
+
+    @Test
+    public void navigation() {
+        CowTreeMap<String, Object> map = new CowTreeMap<>(Comparator.<String>naturalOrder());
+        for (String e : zigZag(99)) {
+            map.put(e, e);
+        }
+        map.remove("50");
+
+        asserts.checkThat(map.firstKey(), is("00"));
+        asserts.checkThat(map.lastKey(), is("97"));
+        asserts.checkThat(map.lowerKey("50"), is("49"));
+        asserts.checkThat(map.floorKey("50"), is("49"));
+        asserts.checkThat(map.ceilingKey("50"), is("51"));
+        asserts.checkThat(map.higherKey("51"), is("52"));
+        asserts.checkThat(map.floorEntry("51").getValue(), is((Object) "51"));
+        asserts.checkThat(map.lowerKey("00"), nullValue());
+        asserts.checkThat(map.higherKey("97"), nullValue());
+        asserts.checkThat(map.descendingMap().higherKey("50"), is("49"));
+        asserts.checkThat(map.descendingMap().firstKey(), is("97"));
+
+        asserts.checkThat(map.pollFirstEntry().getKey(), is("00"));
+        asserts.checkThat(map.pollLastEntry().getKey(), is("97"));
+        asserts.checkThat(map.size(), is(95));
+    }
+
+    @Test
+    public void rangeViewsAreLive() {
+        CowTreeMap<String, Object> map = new CowTreeMap<>(Comparator.<String>naturalOrder());
+        TreeMap<String, Object> expected = new TreeMap<>();
+        for (String e : range(99)) {
+            map.put(e, e);
+            expected.put(e, e);
+        }
+
+        CowNavigableMap<String, Object> view = map.subMap("20", true, "70", false);
+        NavigableMap<String, Object> expectedView = expected.subMap("20", true, "70", false);
+        assertThat(view.size(), is(50));
+
+        view.remove("30");
+        expectedView.remove("30");
+        map.remove("40");
+        expectedView.remove("40");
+        view.headMap("25").clear();
+        expectedView.headMap("25").clear();
+
+        asserts.checkThat(view, is(expectedView));
+        asserts.checkThat(view.size(), is(expectedView.size()));
+        asserts.checkThat(new ArrayList<>(view.descendingKeySet()), is(new ArrayList<>(expectedView.descendingKeySet())));
+        asserts.checkThat(map, is(expected));
+
+        thrown.expect(IllegalArgumentException.class);
+        view.put("80", "80");
+    }
+
+    @Test
+    public void forkOfRangeIsIndependent() {
+        CowTreeMap<String, Object> map = new CowTreeMap<>(Comparator.<String>naturalOrder());
+        for (String e : range(99)) {
+            map.put(e, e);
+        }
+
+        CowNavigableMap<String, Object> view = map.tailMap("90", false);
+        CowNavigableMap<String, Object> fork = view.fork();
+
+        map.remove("95");
+        fork.put("96", "changed");
+
+        asserts.checkThat(fork.size(), is(8));
+        asserts.checkThat(fork.firstKey(), is("91"));
+        asserts.checkThat(fork, hasEntry("95", (Object) "95"));
+        asserts.checkThat(view, hasEntry("96", (Object) "96"));
+        asserts.checkThat(view.containsKey("95"), is(false));
+        asserts.checkThat(fork.containsKey("50"), is(false));
+    }
+
+    @Test
+    public void fromSortedMatchesPuts() {
+        for (int size : new int[] { 0, 1, CowTreeMap.DEFAULT_FANOUT - 1, CowTreeMap.DEFAULT_FANOUT, 1000, 40_000 }) {
+            TreeMap<Integer, Integer> expected = new TreeMap<>();
+            for (int i = 0; i < size; i++) {
+                expected.put(3 * i, i);
+            }
+
+            CowTreeMap<Integer, Integer> map =
+                CowTreeMap.fromSorted(Comparator.<Integer>naturalOrder(), expected.entrySet().iterator());
+            asserts.checkThat(map, is(expected));
+            asserts.checkThat(map.size(), is(size));
+
+            // still a well-formed tree
+            CowTreeMap<Integer, Integer> fork = map.fork();
+            for (int i = 0; i < size; i += 2) {
+                map.remove(3 * i);
+                expected.remove(3 * i);
+                map.put(3 * i + 1, i);
+                expected.put(3 * i + 1, i);
+            }
+            asserts.checkThat(map, is(expected));
+            asserts.checkThat(fork.size(), is(size));
+        }
+    }
+
+    @Test
+    public void putAllOfSortedMapIntoEmptyMap() {
+        TreeMap<String, Object> expected = new TreeMap<>();
+        for (String e : zigZag(99)) {
+            expected.put(e, e);
+        }
+
+        b.putAll(expected);
+        assertThat(b, is(expected));
+        assertThat(b.size(), is(expected.size()));
+    }
+
+    @Test
+    public void fromSortedRejectsUnorderedInput() {
+        List<Map.Entry<String, String>> entries = Arrays.asList(
+            new SimpleImmutableEntry<>("a", "a"),
+            new SimpleImmutableEntry<>("c", "c"),
+            new SimpleImmutableEntry<>("b", "b"));
+
+        thrown.expect(IllegalArgumentException.class);
+        CowTreeMap.fromSorted(Comparator.<String>naturalOrder(), entries.iterator());
+    }
+
+    @Test
+    public void splitAndJoin() {
+        for (int size : new int[] { 0, 1, 100, 5000 }) {
+            TreeMap<Integer, Integer> expected = new TreeMap<>();
+            CowTreeMap<Integer, Integer> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder());
+            for (int i = 0; i < size; i++) {
+                expected.put(2 * i, i);
+                map.put(2 * i, i);
+            }
+            CowTreeMap<Integer, Integer> fork = map.fork();
+
+            for (int at : new int[] { -1, 0, size / 3, size, 2 * size + 1 }) {
+                CowTreeMap<Integer, Integer> right = map.split(at);
+                asserts.checkThat(map, is(expected.headMap(at, false)));
+                asserts.checkThat(right, is(expected.tailMap(at, true)));
+
+                map.join(right);
+                asserts.checkThat(map, is(expected));
+            }
+
+            // the joined map shares with the other; yet they are independent
+            CowTreeMap<Integer, Integer> right = map.split(size);
+            map.join(right);
+            right.put(2 * size + 1, -1);
+            map.put(2 * size + 3, -3);
+            asserts.checkThat(right.containsKey(2 * size + 3), is(false));
+            asserts.checkThat(map.containsKey(2 * size + 1), is(false));
+
+            asserts.checkThat(fork.size(), is(size));
+        }
+    }
+
+    @Test
+    public void joinRejectsOverlappingMaps() {
+        CowTreeMap<String, Object> map = new CowTreeMap<>(Comparator.<String>naturalOrder());
+        CowTreeMap<String, Object> other = new CowTreeMap<>(Comparator.<String>naturalOrder());
+        map.put("b", "b");
+        other.put("a", "a");
+
+        thrown.expect(IllegalArgumentException.class);
+        map.join(other);
+    }
+
+    @Test
+    public void removeAndExtractRanges() {
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        CowTreeMap<Integer, Integer> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder());
+        for (int i = 0; i < 10_000; i++) {
+            expected.put(i, i);
+            map.put(i, i);
+        }
+        CowTreeMap<Integer, Integer> fork = map.fork();
+
+        map.removeRange(100, 9000);
+        expected.subMap(100, 9000).clear();
+        asserts.checkThat(map, is(expected));
+
+        CowTreeMap<Integer, Integer> extracted = map.extractRange(50, 9500);
+        asserts.checkThat(extracted, is(new TreeMap<>(expected.subMap(50, 9500))));
+        expected.subMap(50, 9500).clear();
+        asserts.checkThat(map, is(expected));
+
+        map.subMap(10, 20).clear();
+        expected.subMap(10, 20).clear();
+        asserts.checkThat(map, is(expected));
+
+        asserts.checkThat(fork.size(), is(10_000));
+        asserts.checkThat(fork.countRange(100, 9000), is(8900));
+    }
+
+    @Test
+    public void forEachWalksInOrder() {
+        CowTreeMap<Integer, Integer> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder());
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            map.put(i, -i);
+            keys.add(i);
+        }
+
+        List<Integer> walked = new ArrayList<>();
+        map.forEach((k, v) -> {
+            asserts.checkThat(v, is(-k));
+            walked.add(k);
+        });
+        asserts.checkThat(walked, is(keys));
+
+        List<Integer> walkedKeys = new ArrayList<>();
+        map.forEachKey(walkedKeys::add);
+        asserts.checkThat(walkedKeys, is(keys));
+
+        List<Integer> descending = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : map.descendingEntries()) {
+            descending.add(e.getKey());
+        }
+        Collections.reverse(descending);
+        asserts.checkThat(descending, is(keys));
+    }
+
+    @Test
+    public void spliteratorSplitsIntoSortedSizedRuns() {
+        CowTreeSet<Integer> set = new CowTreeSet<>(Comparator.<Integer>naturalOrder());
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            set.add(i);
+            expected.add(i);
+        }
+
+        Spliterator<Integer> rest = set.spliterator();
+        asserts.checkThat(rest.hasCharacteristics(Spliterator.SORTED | Spliterator.SUBSIZED), is(true));
+        asserts.checkThat(rest.getExactSizeIfKnown(), is(50_000L));
+
+        Spliterator<Integer> prefix = rest.trySplit();
+        asserts.checkThat(prefix.getExactSizeIfKnown() + rest.getExactSizeIfKnown(), is(50_000L));
+
+        List<Integer> seen = new ArrayList<>();
+        prefix.forEachRemaining(seen::add);
+        rest.forEachRemaining(seen::add);
+        asserts.checkThat(seen, is(expected));
+
+        asserts.checkThat(set.parallelStream().mapToLong(Integer::longValue).sum(), is(50_000L * 49_999 / 2));
+    }
+
+    @Test
+    public void narrowAndWideFanouts() {
+        for (int fanout : new int[] { CowTreeMap.MIN_FANOUT, 10, CowTreeMap.MAX_FANOUT }) {
+            CowTreeMap<Integer, Integer> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder(), fanout);
+            TreeMap<Integer, Integer> expected = new TreeMap<>();
+            Random random = new Random(fanout);
+            for (int i = 0; i < 20_000; i++) {
+                int key = random.nextInt(5000);
+                if (random.nextInt(3) == 0) {
+                    asserts.checkThat(map.remove(key), is(expected.remove(key)));
+                } else {
+                    asserts.checkThat(map.put(key, i), is(expected.put(key, i)));
+                }
+            }
+            asserts.checkThat(map, is(expected));
+
+            CowTreeMap<Integer, Integer> upper = map.split(2500);
+            asserts.checkThat(upper, is(expected.tailMap(2500)));
+            map.join(upper);
+            asserts.checkThat(map, is(expected));
+        }
+    }
+
+    @Test
+    public void oddFanoutIsRejected() {
+        thrown.expect(IllegalArgumentException.class);
+        new CowTreeMap<String, String>(Comparator.<String>naturalOrder(), 9);
+    }
+
+    @Test
+    public void abbreviatedKeysSpareTheComparator() {
+        int[] comparisons = new int[1];
+        Comparator<String> counting = (a, b) -> {
+            comparisons[0]++;
+            return a.compareTo(b);
+        };
+        CowTreeMap<String, Object> plain = new CowTreeMap<>(counting);
+        CowTreeMap<String, Object> abbreviated = new CowTreeMap<>(counting, 8, CowTreeMap::abbreviateString);
+
+        Random random = new Random(42);
+        TreeMap<String, Object> expected = new TreeMap<>();
+        for (int i = 0; i < 5_000; i++) {
+            // some keys share their first four characters; those comparisons have to tie-break
+            String key = (random.nextInt(10) == 0 ? "same" : "") + Integer.toString(random.nextInt(100_000), 36);
+            if (random.nextInt(4) == 0) {
+                asserts.checkThat(abbreviated.remove(key), is(expected.remove(key)));
+            } else {
+                asserts.checkThat(abbreviated.put(key, i), is(expected.put(key, i)));
+            }
+            plain.put(key, i);
+        }
+        asserts.checkThat(abbreviated, is(expected));
+
+        comparisons[0] = 0;
+        expected.keySet().forEach(plain::get);
+        int plainComparisons = comparisons[0];
+
+        comparisons[0] = 0;
+        expected.keySet().forEach(key -> asserts.checkThat(abbreviated.containsKey(key), is(true)));
+        asserts.checkThat(comparisons[0], lessThan(plainComparisons / 3));
+    }
+
+    @Test
+    public void abbreviatedStringsKeepTheirOrder() {
+        String[] ordered = { "", "\u0000", "a", "a\u0000", "ab", "abcd", "abcde", "abce", "b", "\uffff\uffff\uffff\uffff\uffff" };
+        for (int i = 0; i + 1 < ordered.length; i++) {
+            long abbreviation = CowTreeMap.abbreviateString(ordered[i]);
+            long next = CowTreeMap.abbreviateString(ordered[i + 1]);
+            asserts.checkThat(ordered[i] + " < " + ordered[i + 1], Long.compareUnsigned(abbreviation, next), lessThan(1));
+        }
+    }
+
+    @Test
+    public void appendsCompareOnlyWithTheLastKey() {
+        int[] comparisons = new int[1];
+        Comparator<Integer> counting = (a, b) -> {
+            comparisons[0]++;
+            return a.compareTo(b);
+        };
+        CowTreeMap<Integer, Object> appended = new CowTreeMap<>(counting, 8);
+        TreeMap<Integer, Object> expected = new TreeMap<>();
+
+        appended.put(0, 0);
+        comparisons[0] = 0;
+        for (int i = 1; i < 5_000; i++) {
+            appended.put(i, i);
+            expected.put(i, i);
+        }
+        asserts.checkThat(comparisons[0], is(4_999));
+
+        // other writes in between, and forks, must not upset the appends
+        expected.put(0, 0);
+        Random random = new Random(42);
+        for (int i = 5_000; i < 20_000; i++) {
+            int op = random.nextInt(10);
+            if (op == 0) {
+                int key = random.nextInt(i);
+                asserts.checkThat(appended.remove(key), is(expected.remove(key)));
+            } else if (op == 1) {
+                int key = random.nextInt(i);
+                asserts.checkThat(appended.put(key, -key), is(expected.put(key, -key)));
+            } else if (op == 2) {
+                CowTreeMap<Integer, Object> fork = appended.fork();
+                fork.put(i, "fork");
+                asserts.checkThat(fork.size(), is(expected.size() + 1));
+            }
+            appended.put(i, i);
+            expected.put(i, i);
+        }
+        asserts.checkThat(appended, is(expected));
+        asserts.checkThat(appended.size(), is(expected.size()));
+        asserts.checkThat(appended.headMap(10_000).size(), is(expected.headMap(10_000).size()));
+    }
+
+    @Test
+    public void putAndMergeSortedBatches() {
+        CowTreeMap<Integer, String> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder(), 8);
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200; i++) {
+            TreeMap<Integer, String> batch = new TreeMap<>();
+            int from = random.nextInt(10_000);
+            int count = random.nextInt(5) == 0 ? 1_000 : 20;
+            for (int j = 0; j < count; j++) {
+                batch.put(from + random.nextInt(2_000), random.nextInt(4) == 0 ? "" : "v" + i);
+            }
+
+            CowTreeMap<Integer, String> fork = map.fork();
+            TreeMap<Integer, String> forked = new TreeMap<>(expected);
+
+            if (i % 2 == 0) {
+                map.putAllSorted(batch.entrySet().iterator());
+                expected.putAll(batch);
+            } else {
+                // an empty value removes the key
+                BiFunction<String, String, String> append = (a, b) -> b.isEmpty() ? null : a + b;
+                map.mergeSorted(batch.entrySet().iterator(), append);
+                batch.forEach((key, value) -> expected.merge(key, value, append));
+            }
+
+            asserts.checkThat(map.size(), is(expected.size()));
+            asserts.checkThat(fork, is(forked));
+        }
+        asserts.checkThat(map, is(expected));
+        for (int key = 0; key < 12_000; key += 7) {
+            asserts.checkThat(map.get(key), is(expected.get(key)));
+        }
+    }
+
+    @Test
+    public void putAllSortedRejectsUnsortedEntries() {
+        CowTreeMap<Integer, String> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder());
+        for (int i = 0; i < 100; i++) {
+            map.put(i, "a" + i);
+        }
+        TreeMap<Integer, String> expected = new TreeMap<>(map);
+
+        TreeMap<Integer, String> descending = new TreeMap<>(Comparator.reverseOrder());
+        descending.put(200, "x");
+        descending.put(50, "y");
+        try {
+            map.putAllSorted(descending.entrySet().iterator());
+            asserts.addError(new AssertionError("expected IllegalArgumentException"));
+        } catch (IllegalArgumentException expectedException) {
+            asserts.checkThat(map, is(expected));
+        }
+    }
+
+    @Test
+    public void mergeSortedRejectsNullValues() {
+        CowTreeMap<Integer, String> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder(), 8);
+        for (int i = 0; i < 100; i++) {
+            map.put(i, "a" + i);
+        }
+        TreeMap<Integer, String> expected = new TreeMap<>(map);
+
+        TreeMap<Integer, String> batch = new TreeMap<>();
+        batch.put(10, "x");
+        batch.put(150, null);
+        try {
+            map.mergeSorted(batch.entrySet().iterator(), String::concat);
+            asserts.addError(new AssertionError("expected NullPointerException"));
+        } catch (NullPointerException expectedException) {
+            asserts.checkThat(map, is(expected));
+        }
+    }
+
+    @Test
+    public void diffReportsChangesInKeyOrder() {
+        CowTreeMap<Integer, String> older = new CowTreeMap<>(Comparator.<Integer>naturalOrder(), 8);
+        for (int i = 0; i < 10_000; i++) {
+            older.put(i, "a");
+        }
+
+        CowTreeMap<Integer, String> newer = older.fork();
+        newer.put(-1, "added");
+        newer.put(5_000, "changed");
+        newer.put(6_000, "a");
+        newer.remove(7_000);
+        newer.removeRange(8_000, 8_003);
+        newer.put(20_000, "added");
+
+        List<String> changes = new ArrayList<>();
+        newer.diff(older, new CowTreeMap.DiffVisitor<Integer, String>() {
+            @Override
+            public void added(Integer key, String value) {
+                changes.add("+" + key + "=" + value);
+            }
+
+            @Override
+            public void removed(Integer key, String oldValue) {
+                changes.add("-" + key + "=" + oldValue);
+            }
+
+            @Override
+            public void changed(Integer key, String oldValue, String newValue) {
+                changes.add(key + "=" + oldValue + "->" + newValue);
+            }
+        });
+
+        asserts.checkThat(changes, is(Arrays.asList(
+            "+-1=added", "5000=a->changed", "-7000=a", "-8000=a", "-8001=a", "-8002=a", "+20000=added")));
+    }
+
+    @Test
+    public void unionIntersectAndSubtractForks() {
+        CowTreeMap<Integer, String> base = new CowTreeMap<>(Comparator.<Integer>naturalOrder(), 8);
+        for (int i = 0; i < 10_000; i++) {
+            base.put(i, "a");
+        }
+        CowTreeMap<Integer, String> other = base.fork();
+        other.put(-1, "b");
+        other.put(5_000, "b");
+        other.remove(7_000);
+        other.removeRange(8_000, 9_000);
+
+        TreeMap<Integer, String> expected = new TreeMap<>(base);
+        expected.putAll(other);
+        CowTreeMap<Integer, String> union = base.fork();
+        asserts.checkThat(union.union(other), is(true));
+        asserts.checkThat(union, is(expected));
+
+        expected = new TreeMap<>(base);
+        expected.keySet().retainAll(other.keySet());
+        CowTreeMap<Integer, String> intersection = base.fork();
+        asserts.checkThat(intersection.intersect(other), is(true));
+        asserts.checkThat(intersection, is(expected));
+
+        expected = new TreeMap<>(base);
+        expected.keySet().removeAll(other.keySet());
+        CowTreeMap<Integer, String> difference = base.fork();
+        asserts.checkThat(difference.subtract(other), is(true));
+        asserts.checkThat(difference, is(expected));
+
+        asserts.checkThat(base.fork().union(base), is(false));
+        asserts.checkThat(base.size(), is(10_000));
+    }
+
+    @Test
+    public void treeSetsCombineWithTreeSets() {
+        CowTreeSet<Integer> evens = new CowTreeSet<>(Comparator.<Integer>naturalOrder());
+        for (int i = 0; i < 1_000; i += 2) {
+            evens.add(i);
+        }
+        CowTreeSet<Integer> some = evens.fork();
+        some.add(1);
+        some.remove(500);
+
+        CowTreeSet<Integer> union = evens.fork();
+        union.addAll(some);
+        asserts.checkThat(union.size(), is(501));
+        asserts.checkThat(union.contains(1), is(true));
+        asserts.checkThat(union.contains(500), is(true));
+
+        CowTreeSet<Integer> intersection = evens.fork();
+        intersection.retainAll(some);
+        asserts.checkThat(intersection.size(), is(499));
+        asserts.checkThat(intersection.contains(500), is(false));
+
+        CowTreeSet<Integer> difference = evens.fork();
+        difference.removeAll(some);
+        asserts.checkThat(new ArrayList<>(difference), is(Collections.singletonList(500)));
+    }
+
+    @Test
+    public void treeSetNavigatesLikeATreeSet() {
+        CowTreeSet<Integer> set = new CowTreeSet<>(Comparator.<Integer>naturalOrder());
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < 1_000; i += 3) {
+            set.add(i);
+            expected.add(i);
+        }
+
+        for (int key = -2; key < 1_002; key += 7) {
+            asserts.checkThat(set.lower(key), is(expected.lower(key)));
+            asserts.checkThat(set.floor(key), is(expected.floor(key)));
+            asserts.checkThat(set.ceiling(key), is(expected.ceiling(key)));
+            asserts.checkThat(set.higher(key), is(expected.higher(key)));
+            asserts.checkThat(new ArrayList<>(set.subSet(key, true, key + 100, false)),
+                is(new ArrayList<>(expected.subSet(key, true, key + 100, false))));
+            asserts.checkThat(new ArrayList<>(set.headSet(key, true).descendingSet()),
+                is(new ArrayList<>(expected.headSet(key, true).descendingSet())));
+            asserts.checkThat(new ArrayList<>(set.tailSet(key)), is(new ArrayList<>(expected.tailSet(key))));
+        }
+
+        List<Integer> descending = new ArrayList<>();
+        set.descendingIterator().forEachRemaining(descending::add);
+        asserts.checkThat(descending, is(new ArrayList<>(expected.descendingSet())));
+        asserts.checkThat(set.first(), is(0));
+        asserts.checkThat(set.last(), is(999));
+
+        set.subSet(100, 200).clear();
+        expected.subSet(100, 200).clear();
+        asserts.checkThat(set.pollFirst(), is(expected.pollFirst()));
+        asserts.checkThat(set.pollLast(), is(expected.pollLast()));
+        asserts.checkThat(set, is(expected));
+    }
+
+    @Test
+    public void cursorSeeksForward() {
+        CowTreeMap<Integer, String> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder(), 8);
+        for (int i = 0; i < 10_000; i += 2) {
+            map.put(i, "v" + i);
+        }
+
+        CowTreeMap.Cursor<Integer, String> cursor = map.cursor();
+        asserts.checkThat(cursor.key(), is(0));
+        asserts.checkThat(cursor.seek(5), is(true));
+        asserts.checkThat(cursor.key(), is(6));
+        asserts.checkThat(cursor.seek(3), is(true));
+        asserts.checkThat("never backward", cursor.key(), is(6));
+        asserts.checkThat(cursor.next(), is(true));
+        asserts.checkThat(cursor.value(), is("v8"));
+        asserts.checkThat(cursor.seek(7_777), is(true));
+        asserts.checkThat(cursor.key(), is(7_778));
+        asserts.checkThat(cursor.seek(9_998), is(true));
+        asserts.checkThat(cursor.next(), is(false));
+        asserts.checkThat(cursor.hasKey(), is(false));
+
+        thrown.expect(NoSuchElementException.class);
+        cursor.key();
+    }
+
+    @Test
+    public void leapfrogJoinIntersectsKeys() {
+        List<CowTreeMap<Integer, String>> maps = new ArrayList<>();
+        for (int step : new int[] { 2, 3, 5 }) {
+            CowTreeMap<Integer, String> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder(), 8);
+            for (int i = 0; i < 1_000; i += step) {
+                map.put(i, "");
+            }
+            maps.add(map);
+        }
+
+        List<Integer> joined = new ArrayList<>();
+        CowTreeMap.leapfrogJoin(maps, joined::add);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1_000; i += 30) {
+            expected.add(i);
+        }
+        asserts.checkThat(joined, is(expected));
+    }
+
+    @Test
+    public void compactKeepsEntriesAndForks() {
+        CowTreeMap<Integer, Object> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder(), 8);
+        TreeMap<Integer, Object> expected = new TreeMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5_000; i++) {
+            int key = random.nextInt(2_000);
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+        }
+
+        TreeMap<Integer, Object> before = new TreeMap<>(expected);
+        CowTreeMap<Integer, Object> compacted = map.fork(true);
+        map.compact();
+        asserts.checkThat(compacted, is(expected));
+        asserts.checkThat(map, is(expected));
+
+        for (int i = 0; i < 2_000; i++) {
+            int key = random.nextInt(2_000);
+            if (random.nextBoolean()) {
+                asserts.checkThat(compacted.remove(key), is(expected.remove(key)));
+            } else {
+                asserts.checkThat(compacted.put(key, -i), is(expected.put(key, -i)));
+            }
+        }
+        asserts.checkThat(compacted, is(expected));
+        asserts.checkThat(compacted.size(), is(expected.size()));
+        asserts.checkThat(compacted.headMap(1_000).size(), is(expected.headMap(1_000).size()));
+        asserts.checkThat(map, is(before));
+    }
+
+    @Test
+    public void editsInPlaceLeaveForksAlone() {
+        CowTreeMap<Integer, Object> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder(), 8);
+        TreeMap<Integer, Object> expected = new TreeMap<>();
+        List<CowTreeMap<Integer, Object>> forks = new ArrayList<>();
+        List<TreeMap<Integer, Object>> forked = new ArrayList<>();
+
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(1_000);
+            if (random.nextInt(3) == 0) {
+                asserts.checkThat(map.remove(key), is(expected.remove(key)));
+            } else {
+                asserts.checkThat(map.put(key, i), is(expected.put(key, i)));
+            }
+
+            if (i % 1_000 == 0) {
+                forks.add(map.fork());
+                forked.add(new TreeMap<>(expected));
+            }
+        }
+
+        asserts.checkThat(map, is(expected));
+        for (int i = 0; i < forks.size(); i++) {
+            asserts.checkThat(forks.get(i), is(forked.get(i)));
+            asserts.checkThat(forks.get(i).size(), is(forked.get(i).size()));
+        }
+    }
+
+    @Test
+    public void setValueWhileIteratingVisitsEachEntryOnce() {
+        CowTreeMap<Integer, Object> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder(), 8);
+        TreeMap<Integer, Object> expected = new TreeMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 3_000; i++) {
+            int key = random.nextInt(10_000);
+            map.put(key, 0);
+            expected.put(key, 0);
+        }
+        CowTreeMap<Integer, Object> fork = map.fork();
+
+        List<Integer> visited = new ArrayList<>();
+        for (Map.Entry<Integer, Object> entry : map.entrySet()) {
+            visited.add(entry.getKey());
+            asserts.checkThat(entry.getValue(), is((Object) 0));
+            asserts.checkThat(entry.setValue(1), is((Object) 0));
+            expected.put(entry.getKey(), 1);
+        }
+
+        asserts.checkThat(visited, is(new ArrayList<>(expected.keySet())));
+        asserts.checkThat(map, is(expected));
+        asserts.checkThat(fork.values().stream().allMatch(v -> v.equals(0)), is(true));
+    }
+
+    @Test
+    public void replaceAllOnFullNodes() {
+        CowTreeMap<Integer, Integer> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder(), 8);
+        Random random = new Random(42);
+        for (int i = 0; i < 3_000; i++) {
+            map.put(random.nextInt(10_000), 0);
+        }
+
+        map.replaceAll((k, v) -> v + 1);
+        asserts.checkThat(map.values().stream().allMatch(v -> v == 1), is(true));
+        map.replaceAll((k, v) -> v + 1);
+        asserts.checkThat(map.values().stream().allMatch(v -> v == 2), is(true));
+    }
+
+    @Test
+    public void equalityAndHashSkipSharedSubtrees() {
+        int[] comparisons = new int[1];
+        Comparator<Integer> counting = (a, b) -> {
+            comparisons[0]++;
+            return a.compareTo(b);
+        };
+        CowTreeMap<Integer, Object> map = new CowTreeMap<>(counting, 8);
+        TreeMap<Integer, Object> expected = new TreeMap<>();
+
+        Random random = new Random(42);
+        for (int i = 0; i < 5_000; i++) {
+            int key = random.nextInt(1_000);
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, i % 7);
+                expected.put(key, i % 7);
+            }
+            if (i % 500 == 0) {
+                asserts.checkThat(map.hashCode(), is(expected.hashCode()));
+            }
+        }
+        asserts.checkThat(map, is(expected));
+        asserts.checkThat(expected, is(map));
+
+        CowTreeMap<Integer, Object> fork = map.fork();
+        comparisons[0] = 0;
+        asserts.checkThat(fork.equals(map), is(true));
+        asserts.checkThat(comparisons[0], is(0));
+
+        Integer key = expected.firstKey();
+        fork.put(key, "changed");
+        asserts.checkThat(fork.equals(map), is(false));
+        asserts.checkThat(fork.hashCode(), is(not(map.hashCode())));
+
+        fork.put(key, expected.get(key));
+        comparisons[0] = 0;
+        asserts.checkThat(fork.equals(map), is(true));
+        asserts.checkThat(comparisons[0], lessThan(expected.size() / 10));
+        asserts.checkThat(fork.hashCode(), is(map.hashCode()));
+
+        CowTreeMap<Integer, Object> rebuilt = new CowTreeMap<>(counting, 16);
+        rebuilt.putAll(expected);
+        asserts.checkThat(rebuilt.equals(map), is(true));
+        asserts.checkThat(rebuilt.hashCode(), is(map.hashCode()));
+    }
+
+    @Test
+    public void clearLetsGoOfTheOldTree() {
+        CowTreeMap<Integer, Object> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder(), 8);
+        Object value = new Object();
+        WeakReference<Object> ref = new WeakReference<>(value);
+        map.put(0, value);
+        // descending, so every put goes down the edit path
+        for (int i = -1; i > -1_000; i--) {
+            map.put(i, i);
+        }
+        value = null;
+
+        map.clear();
+        asserts.checkThat(isCollected(ref), is(true));
+    }
+
+    @Test
+    public void replacingTheTreeLetsGoOfTheAppendFinger() {
+        CowTreeMap<Integer, Object> map = new CowTreeMap<>(Comparator.<Integer>naturalOrder(), 8);
+        Object value = new Object();
+        WeakReference<Object> ref = new WeakReference<>(value);
+        map.put(0, value);
+        // ascending, so every put appends through the finger
+        for (int i = 1; i < 1_000; i++) {
+            map.put(i, i);
+        }
+        value = null;
+
+        map.removeRange(-1, 500);
+        asserts.checkThat(isCollected(ref), is(true));
+        asserts.checkThat(map.size(), is(500));
+    }
+
+    private static boolean isCollected(WeakReference<?> ref) {
+        for (int i = 0; i < 20 && ref.get() != null; i++) {
+            System.gc();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return ref.get() == null;
+    }
 }